@@ -20,7 +20,11 @@
              :clj-test {:source-paths ["test"]
                         :dependencies [[collection-check "0.1.7"]]}
              :test {:dependencies [[collection-check "0.1.7"]]}
-             :histogram {:dependencies [[cljsjs/c3 "0.4.10-0"]]}}
+             :histogram {:dependencies [[cljsjs/c3 "0.4.10-0"]]}
+             :clj-bench {:java-source-paths ["src/bench/java"]
+                         :dependencies [[org.openjdk.jmh/jmh-core "1.19"]
+                                        [org.openjdk.jmh/jmh-generator-annprocess "1.19"]
+                                        [org.openjdk.jol/jol-core "0.17"]]}}
 
   :plugins [[lein-doo "0.1.6"]]
 
@@ -0,0 +1,2 @@
+#!/bin/sh
+lein with-profile +clj-bench trampoline run -m org.openjdk.jmh.Main -prof gc "$@"
@@ -0,0 +1,87 @@
+package com.bendyworks.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import clojure.lang.IPersistentMap;
+
+import com.bendyworks.LeanMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * A persistent update of a batch of random keys, half of them new, through assocAll and withoutAll
+ * against an assoc or without per key. Run with -prof gc for the garbage per batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class BatchUpdateBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    @Param({"16", "256"})
+    public int batch;
+
+    LeanMap map;
+    Object[] keys;
+    Object[] vals;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final Object[] present = Keys.create("long", 0, size);
+        final Object[] missing = Keys.create("long", size, size);
+        map = (LeanMap) Keys.build(LeanMap.EMPTY, present);
+
+        final Random random = new Random(42);
+        keys = new Object[batch];
+        vals = new Object[batch];
+        for (int i = 0; i < batch; i++) {
+            keys[i] = ((i % 2) == 0) ? present[random.nextInt(size)] : missing[random.nextInt(size)];
+            vals[i] = -1L;
+        }
+    }
+
+    @Benchmark
+    public Object assocAll() {
+        return map.assocAll(keys, vals);
+    }
+
+    @Benchmark
+    public Object assoc() {
+        IPersistentMap ret = map;
+        for (int i = 0; i < keys.length; i++) {
+            ret = ret.assoc(keys[i], vals[i]);
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public Object withoutAll() {
+        return map.withoutAll(keys);
+    }
+
+    @Benchmark
+    public Object without() {
+        IPersistentMap ret = map;
+        for (int i = 0; i < keys.length; i++) {
+            ret = ret.without(keys[i]);
+        }
+        return ret;
+    }
+}
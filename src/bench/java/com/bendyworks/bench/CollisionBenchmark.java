@@ -0,0 +1,70 @@
+package com.bendyworks.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import clojure.lang.IPersistentMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * String keys that all share one hash, as a client flooding a map keyed by its input would send them.
+ * They all land in a single collision node, sorted on LeanMap past 8 of them and scanned on PersistentHashMap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollisionBenchmark {
+
+    @Param({"lean", "hash"})
+    public String impl;
+
+    @Param({"8", "64", "1024"})
+    public int size;
+
+    IPersistentMap empty;
+    IPersistentMap map;
+    Object[] keys;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        empty = Keys.empty(impl);
+        keys = Keys.create("flood", 0, size);
+        map = assoc();
+    }
+
+    @Benchmark
+    public IPersistentMap assoc() {
+        IPersistentMap ret = empty;
+        for (int i = 0; i < keys.length; i++) {
+            ret = ret.assoc(keys[i], keys[i]);
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public IPersistentMap transientAssoc() {
+        return Keys.build(empty, keys);
+    }
+
+    @Benchmark
+    public void valAt(Blackhole bh) {
+        for (int i = 0; i < keys.length; i++) {
+            bh.consume(map.valAt(keys[i]));
+        }
+    }
+}
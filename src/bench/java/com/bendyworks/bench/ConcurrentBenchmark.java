@@ -0,0 +1,110 @@
+package com.bendyworks.bench;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import clojure.lang.AFn;
+import clojure.lang.Atom;
+import clojure.lang.IPersistentMap;
+
+import com.bendyworks.ConcurrentLeanMap;
+import com.bendyworks.LeanMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * A map shared by several threads: ConcurrentLeanMap, a LeanMap in an atom updated with swap!, and
+ * ConcurrentHashMap. Each thread picks random keys of a map already holding all of them.
+ * Run the put and get benchmarks with -t for other thread counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class ConcurrentBenchmark {
+
+    @Param({"lean", "atom", "chm"})
+    public String impl;
+
+    @Param({"100000"})
+    public int size;
+
+    static final AFn ASSOC = new AFn() {
+        public Object invoke(Object map, Object key, Object val) {
+            return ((IPersistentMap) map).assoc(key, val);
+        }
+    };
+
+    Object[] keys;
+    Map<Object, Object> map;
+    Atom atom;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        keys = Keys.create("string", 0, size);
+        if ("atom".equals(impl)) {
+            atom = new Atom(Keys.build(LeanMap.EMPTY, keys));
+        } else {
+            map = "lean".equals(impl) ? new ConcurrentLeanMap() : new ConcurrentHashMap<Object, Object>();
+            for (int i = 0; i < keys.length; i++) {
+                map.put(keys[i], (long) i);
+            }
+        }
+    }
+
+    Object key() {
+        return keys[ThreadLocalRandom.current().nextInt(keys.length)];
+    }
+
+    Object doGet(Object key) {
+        return (atom == null) ? map.get(key) : ((IPersistentMap) atom.deref()).valAt(key);
+    }
+
+    Object doPut(Object key, Object val) {
+        return (atom == null) ? map.put(key, val) : atom.swap(ASSOC, key, val);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object put() {
+        return doPut(key(), Boolean.TRUE);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object get() {
+        return doGet(key());
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public Object mixedGet() {
+        return doGet(key());
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public Object mixedPut() {
+        return doPut(key(), Boolean.TRUE);
+    }
+}
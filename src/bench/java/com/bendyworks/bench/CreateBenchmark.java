@@ -0,0 +1,71 @@
+package com.bendyworks.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import clojure.lang.PersistentHashMap;
+
+import com.bendyworks.LeanMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Building a whole map from {key1,val1,key2,val2,...} bottom-up against assoc'ing into a transient.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class CreateBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    @Param({"long", "keyword", "string"})
+    public String keys;
+
+    Object[] init;
+    Object[] present;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        present = Keys.create(keys, 0, size);
+        init = new Object[(2 * size)];
+        for (int i = 0; i < size; i++) {
+            init[(2 * i)] = present[i];
+            init[((2 * i) + 1)] = (long) i;
+        }
+    }
+
+    @Benchmark
+    public Object create() {
+        return LeanMap.create(init);
+    }
+
+    @Benchmark
+    public Object createWithCheck() {
+        return LeanMap.createWithCheck(init);
+    }
+
+    @Benchmark
+    public Object transientAssoc() {
+        return Keys.build(LeanMap.EMPTY, present);
+    }
+
+    @Benchmark
+    public Object hashMapCreate() {
+        return PersistentHashMap.create(init);
+    }
+}
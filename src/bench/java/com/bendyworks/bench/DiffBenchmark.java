@@ -0,0 +1,86 @@
+package com.bendyworks.bench;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import clojure.lang.AFn;
+import clojure.lang.IFn;
+import clojure.lang.IPersistentMap;
+import clojure.lang.Util;
+
+import com.bendyworks.LeanMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * LeanMap.diff against two full scans with lookups, between a map and a version of it a few assocs and dissocs away.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class DiffBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    @Param({"1", "100"})
+    public int changes;
+
+    static final IFn COUNT_CHANGES = new AFn() {
+        public Object invoke(Object acc, Object kind, Object key, Object old_val, Object new_val) {
+            return ((Long) acc) + 1L;
+        }
+    };
+
+    LeanMap before;
+    LeanMap after;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final Object[] keys = Keys.create("long", 0, size);
+        before = (LeanMap) Keys.build(LeanMap.EMPTY, keys);
+        IPersistentMap map = before;
+        for (int i = 0; i < changes; i++) {
+            final int idx = (int) (((long) i * size) / changes);
+            map = ((i % 2) == 0) ? map.without(keys[idx]) : map.assoc(keys[idx], -1L);
+        }
+        after = (LeanMap) map;
+    }
+
+    @Benchmark
+    public Object diff() {
+        return before.diff(after, COUNT_CHANGES, 0L);
+    }
+
+    @Benchmark
+    public long scan() {
+        long count = 0;
+        for (Iterator it = before.iterator(); it.hasNext();) {
+            final Map.Entry e = (Map.Entry) it.next();
+            if (!after.containsKey(e.getKey()) || !Util.equiv(e.getValue(), after.valAt(e.getKey()))) {
+                count++;
+            }
+        }
+        for (Iterator it = after.iterator(); it.hasNext();) {
+            if (!before.containsKey(((Map.Entry) it.next()).getKey())) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,83 @@
+package com.bendyworks.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import clojure.lang.IPersistentMap;
+import clojure.lang.PersistentHashMap;
+
+import com.bendyworks.LeanMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Equality of two equal maps, either sharing all but one path (shared)
+ * or built independently from the same entries (unshared).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EquivBenchmark {
+
+    @Param({"100", "10000", "1000000"})
+    public int size;
+
+    IPersistentMap lean;
+    IPersistentMap lean_shared;
+    IPersistentMap lean_unshared;
+
+    IPersistentMap hash;
+    IPersistentMap hash_shared;
+    IPersistentMap hash_unshared;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Object[] init = new Object[2 * size];
+        for (int i = 0; i < size; i++) {
+            init[2 * i] = (long) i;
+            init[(2 * i) + 1] = (long) i;
+        }
+        final Object key = init[2 * (size / 2)];
+
+        lean = LeanMap.create(init);
+        lean_shared = lean.without(key).assoc(key, lean.valAt(key));
+        lean_unshared = LeanMap.create(init.clone());
+
+        hash = PersistentHashMap.create(init);
+        hash_shared = hash.without(key).assoc(key, hash.valAt(key));
+        hash_unshared = PersistentHashMap.create(init.clone());
+    }
+
+    @Benchmark
+    public boolean leanShared() {
+        return lean.equiv(lean_shared);
+    }
+
+    @Benchmark
+    public boolean leanUnshared() {
+        return lean.equiv(lean_unshared);
+    }
+
+    @Benchmark
+    public boolean hashShared() {
+        return hash.equiv(hash_shared);
+    }
+
+    @Benchmark
+    public boolean hashUnshared() {
+        return hash.equiv(hash_unshared);
+    }
+}
@@ -0,0 +1,109 @@
+package com.bendyworks.bench;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+
+import clojure.java.api.Clojure;
+import clojure.lang.AFn;
+import clojure.lang.IFn;
+
+import com.bendyworks.LeanMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Scaling of r/fold over a LeanMap across fork/join pools of 1 to N workers.
+ * parallelism = 0 runs a plain sequential reduce-kv as the baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FoldBenchmark {
+
+    @Param({"1000000"})
+    public int size;
+
+    @Param({"512"})
+    public long n;
+
+    @Param({"0", "1", "2", "4", "8"})
+    public int parallelism;
+
+    static final IFn FOLD;
+    static final IFn REDUCE_KV;
+
+    static {
+        Clojure.var("clojure.core", "require").invoke(Clojure.read("clojure.lean-map.util"));
+        FOLD = Clojure.var("clojure.core.reducers", "fold");
+        REDUCE_KV = Clojure.var("clojure.core", "reduce-kv");
+    }
+
+    static final IFn COMBINE = new AFn() {
+        public Object invoke() {
+            return 0.0d;
+        }
+
+        public Object invoke(Object x, Object y) {
+            return ((Double) x) + ((Double) y);
+        }
+    };
+
+    static final IFn REDUCE = new AFn() {
+        public Object invoke(Object acc, Object key, Object val) {
+            final long v = (Long) val;
+            return ((Double) acc) + Math.sqrt(v) * Math.sin(v);
+        }
+    };
+
+    LeanMap map;
+    ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Object[] init = new Object[2 * size];
+        for (int i = 0; i < size; i++) {
+            init[2 * i] = (long) i;
+            init[(2 * i) + 1] = (long) i;
+        }
+        map = LeanMap.create(init);
+        pool = (parallelism == 0) ? null : new ForkJoinPool(parallelism);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public Object fold() {
+        if (pool == null) {
+            return REDUCE_KV.invoke(REDUCE, COMBINE.invoke(), map);
+        }
+
+        // r/fold runs inline when already inside a pool, so each worker count gets its own pool
+        return pool.invoke(ForkJoinTask.adapt(new Callable<Object>() {
+            public Object call() {
+                return FOLD.invoke(n, COMBINE, REDUCE, map);
+            }
+        }));
+    }
+}
@@ -0,0 +1,59 @@
+package com.bendyworks.bench;
+
+import clojure.lang.IEditableCollection;
+import clojure.lang.IPersistentMap;
+import clojure.lang.ITransientMap;
+
+import org.openjdk.jol.info.GraphLayout;
+import org.openjdk.jol.vm.VM;
+
+/*
+ * Prints the bytes per entry a map spends on top of its keys and values, measured with JOL.
+ *
+ * Run with: java -cp ... com.bendyworks.bench.Footprint [impl ...], impl being lean, hashed or hash
+ */
+public final class Footprint {
+
+    private Footprint() {}
+
+    static final int[] SIZES = { 100, 10000, 1000000 };
+
+    public static void main(String[] args) {
+        final String[] impls = (args.length == 0) ? new String[] { "lean", "hashed", "hash" } : args;
+        System.out.printf("%-8s %-12s %10s %14s%n", "impl", "built by", "size", "bytes/entry");
+        for (String impl : impls) {
+            for (int size : SIZES) {
+                final Object[] keys = Keys.create("long", 0, size);
+                final Object[] vals = new Object[size];
+                for (int i = 0; i < size; i++) {
+                    vals[i] = (long) -i;
+                }
+                print(impl, "assoc", size, keys, vals, assoc(Keys.empty(impl), keys, vals));
+                print(impl, "transient", size, keys, vals, transientAssoc(Keys.empty(impl), keys, vals));
+            }
+        }
+    }
+
+    static void print(String impl, String built_by, int size, Object[] keys, Object[] vals, IPersistentMap map) {
+        // sizes rather than GraphLayout.subtract, which matches by address and misses objects a GC moved in between
+        final long entries = (GraphLayout.parseInstance(keys, vals).totalSize() - VM.current().sizeOf(keys) - VM.current().sizeOf(vals));
+        final long overhead = (GraphLayout.parseInstance(map).totalSize() - entries);
+        System.out.printf("%-8s %-12s %10d %14.2f%n", impl, built_by, size, ((double) overhead / size));
+    }
+
+    static IPersistentMap assoc(IPersistentMap empty, Object[] keys, Object[] vals) {
+        IPersistentMap ret = empty;
+        for (int i = 0; i < keys.length; i++) {
+            ret = ret.assoc(keys[i], vals[i]);
+        }
+        return ret;
+    }
+
+    static IPersistentMap transientAssoc(IPersistentMap empty, Object[] keys, Object[] vals) {
+        ITransientMap ret = (ITransientMap) ((IEditableCollection) empty).asTransient();
+        for (int i = 0; i < keys.length; i++) {
+            ret = ret.assoc(keys[i], vals[i]);
+        }
+        return ret.persistent();
+    }
+}
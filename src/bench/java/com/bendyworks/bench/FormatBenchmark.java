@@ -0,0 +1,118 @@
+package com.bendyworks.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import clojure.lang.ITransientMap;
+
+import com.bendyworks.LeanMap;
+import com.bendyworks.LeanMapFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Writing and reading a LeanMap three ways: LeanMapFormat, which writes the trie and reads it back without
+ * hashing, ObjectOutputStream's default serialization of the nodes, and a flat stream of count and entries
+ * through the same codec, read back by assoc! into a transient as a Nippy-style format does. Setup prints
+ * the bytes each takes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class FormatBenchmark {
+
+    @Param({"long", "keyword", "string"})
+    public String keys;
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    LeanMap map;
+    byte[] format_bytes;
+    byte[] java_bytes;
+    byte[] flat_bytes;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        map = (LeanMap) Keys.build(LeanMap.EMPTY, Keys.create(keys, 0, size));
+        format_bytes = formatWrite().toByteArray();
+        java_bytes = javaWrite().toByteArray();
+        flat_bytes = flatWrite().toByteArray();
+        System.out.printf("%nbytes: format %d, java %d, flat %d%n", format_bytes.length, java_bytes.length, flat_bytes.length);
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream formatWrite() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        LeanMapFormat.write(map, out);
+        out.flush();
+        return bytes;
+    }
+
+    @Benchmark
+    public Object formatRead() throws IOException {
+        return LeanMapFormat.read(new DataInputStream(new ByteArrayInputStream(format_bytes)));
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream javaWrite() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(map);
+        out.flush();
+        return bytes;
+    }
+
+    @Benchmark
+    public Object javaRead() throws Exception {
+        return new ObjectInputStream(new ByteArrayInputStream(java_bytes)).readObject();
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream flatWrite() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(map.count());
+        for (Iterator it = map.iterator(); it.hasNext(); ) {
+            final Map.Entry e = (Map.Entry) it.next();
+            LeanMapFormat.DEFAULT.write(out, e.getKey());
+            LeanMapFormat.DEFAULT.write(out, e.getValue());
+        }
+        out.flush();
+        return bytes;
+    }
+
+    @Benchmark
+    public Object flatRead() throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(flat_bytes));
+        final int count = in.readInt();
+        ITransientMap ret = LeanMap.EMPTY.asTransient();
+        for (int i = 0; i < count; i++) {
+            ret = ret.assoc(LeanMapFormat.DEFAULT.read(in), LeanMapFormat.DEFAULT.read(in));
+        }
+        return ret.persistent();
+    }
+}
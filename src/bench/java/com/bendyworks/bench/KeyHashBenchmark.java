@@ -0,0 +1,132 @@
+package com.bendyworks.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import clojure.lang.IHashEq;
+import clojure.lang.IPersistentMap;
+import clojure.lang.ITransientMap;
+
+import com.bendyworks.LeanMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * LeanMap.EMPTY against LeanMap.EMPTY_HASHED with keys whose hasheq is not cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyHashBenchmark {
+
+    /*
+     * Hashes all of its parts on every call, like a composite key without a hash cache
+     */
+    public static final class CompositeKey implements IHashEq {
+        final long[] parts;
+
+        CompositeKey(long id, int width) {
+            this.parts = new long[width];
+            for (int i = 0; i < width; i++) {
+                this.parts[i] = id * (i + 1);
+            }
+        }
+
+        public int hasheq() {
+            int hash = 1;
+            for (long part : this.parts) {
+                hash = (31 * hash) + (int) (part ^ (part >>> 32));
+            }
+            return hash;
+        }
+
+        public int hashCode() {
+            return hasheq();
+        }
+
+        public boolean equals(Object o) {
+            return (o instanceof CompositeKey) && java.util.Arrays.equals(this.parts, ((CompositeKey) o).parts);
+        }
+    }
+
+    @Param({"100", "10000", "1000000"})
+    public int size;
+
+    @Param({"1", "512"})
+    public int width;
+
+    @Param({"plain", "hashed"})
+    public String mode;
+
+    LeanMap empty;
+    IPersistentMap map;
+    CompositeKey[] keys;
+    CompositeKey[] missing;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        empty = "hashed".equals(mode) ? LeanMap.EMPTY_HASHED : LeanMap.EMPTY;
+        keys = new CompositeKey[size];
+        missing = new CompositeKey[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = new CompositeKey(i, width);
+            missing[i] = new CompositeKey(-i - 1, width);
+        }
+        map = build();
+    }
+
+    IPersistentMap build() {
+        ITransientMap ret = empty.asTransient();
+        for (int i = 0; i < keys.length; i++) {
+            ret = ret.assoc(keys[i], i);
+        }
+        return ret.persistent();
+    }
+
+    @Benchmark
+    public Object transientAssoc() {
+        return build();
+    }
+
+    @Benchmark
+    public Object assoc() {
+        IPersistentMap ret = empty;
+        for (int i = 0; i < keys.length; i++) {
+            ret = ret.assoc(keys[i], i);
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public Object without() {
+        IPersistentMap ret = map;
+        for (int i = 0; i < keys.length; i++) {
+            ret = ret.without(keys[i]);
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public int valAtMiss() {
+        int found = 0;
+        for (int i = 0; i < missing.length; i++) {
+            if (map.valAt(missing[i]) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+}
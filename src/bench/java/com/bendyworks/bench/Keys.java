@@ -0,0 +1,112 @@
+package com.bendyworks.bench;
+
+import clojure.lang.IEditableCollection;
+import clojure.lang.IHashEq;
+import clojure.lang.IPersistentMap;
+import clojure.lang.ITransientMap;
+import clojure.lang.Keyword;
+import clojure.lang.Murmur3;
+import clojure.lang.PersistentArrayMap;
+import clojure.lang.PersistentHashMap;
+
+import com.bendyworks.LeanMap;
+
+/*
+ * Key generators and map builders shared by the benchmarks.
+ */
+public final class Keys {
+
+    private Keys() {}
+
+    /*
+     * Every two consecutive ids share a hash, like :key70327 and :key101439 do
+     */
+    public static final class CollidingKey implements IHashEq {
+        final long id;
+
+        CollidingKey(long id) {
+            this.id = id;
+        }
+
+        public int hasheq() {
+            return Murmur3.hashLong(this.id >> 1);
+        }
+
+        public int hashCode() {
+            return hasheq();
+        }
+
+        public boolean equals(Object o) {
+            return (o instanceof CollidingKey) && (this.id == ((CollidingKey) o).id);
+        }
+
+        public String toString() {
+            return "CollidingKey. " + this.id;
+        }
+    }
+
+    /*
+     * @param type one of long, keyword, string, collision or flood
+     */
+    public static Object[] create(String type, int from, int count) {
+        final Object[] keys = new Object[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = create(type, (long) (from + i));
+        }
+        if ("collision".equals(type) && (from == 0) && (count >= 2)) {
+            keys[0] = Keyword.intern("key70327");
+            keys[1] = Keyword.intern("key101439");
+        }
+        return keys;
+    }
+
+    /*
+     * "Aa" and "BB" have the same String.hashCode, so every string of 20 of them, one per bit of i, hashes the same
+     */
+    static String flood(long i) {
+        final StringBuilder sb = new StringBuilder(40);
+        for (int bit = 19; bit >= 0; bit--) {
+            sb.append((((i >> bit) & 1) == 0) ? "Aa" : "BB");
+        }
+        return sb.toString();
+    }
+
+    static Object create(String type, long i) {
+        if ("long".equals(type)) {
+            return i;
+        } else if ("keyword".equals(type)) {
+            return Keyword.intern("key" + i);
+        } else if ("string".equals(type)) {
+            return "key" + i;
+        } else if ("collision".equals(type)) {
+            return new CollidingKey(i);
+        } else if ("flood".equals(type)) {
+            return flood(i);
+        }
+        throw new IllegalArgumentException("Unknown key type: " + type);
+    }
+
+    /*
+     * @param impl lean, hashed, hash or array
+     */
+    public static IPersistentMap empty(String impl) {
+        if ("lean".equals(impl)) {
+            return LeanMap.EMPTY;
+        } else if ("hashed".equals(impl)) {
+            return LeanMap.EMPTY_HASHED;
+        } else if ("hash".equals(impl)) {
+            return PersistentHashMap.EMPTY;
+        } else if ("array".equals(impl)) {
+            return PersistentArrayMap.EMPTY;
+        }
+        throw new IllegalArgumentException("Unknown map implementation: " + impl);
+    }
+
+    public static IPersistentMap build(IPersistentMap empty, Object[] keys) {
+        ITransientMap ret = (ITransientMap) ((IEditableCollection) empty).asTransient();
+        for (int i = 0; i < keys.length; i++) {
+            ret = ret.assoc(keys[i], (long) i);
+        }
+        return ret.persistent();
+    }
+}
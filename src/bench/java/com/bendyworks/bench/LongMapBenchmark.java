@@ -0,0 +1,93 @@
+package com.bendyworks.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import clojure.lang.IPersistentMap;
+
+import com.bendyworks.LeanMap;
+import com.bendyworks.LongLeanMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * LongLeanMap through its primitive entry points against LeanMap with boxed Long keys.
+ * Keys are spread over the whole long range, so none of them come from the Long cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class LongMapBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    long[] keys;
+    Object val = "val";
+    LongLeanMap long_map;
+    IPersistentMap lean_map;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = (i * 0x9E3779B97F4A7C15L);
+        }
+        long_map = buildLong();
+        lean_map = buildLean();
+    }
+
+    LongLeanMap buildLong() {
+        LongLeanMap ret = LongLeanMap.EMPTY;
+        for (int i = 0; i < keys.length; i++) {
+            ret = ret.assoc(keys[i], val);
+        }
+        return ret;
+    }
+
+    IPersistentMap buildLean() {
+        IPersistentMap ret = LeanMap.EMPTY;
+        for (int i = 0; i < keys.length; i++) {
+            ret = ret.assoc(keys[i], val);
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public Object longAssoc() {
+        return buildLong();
+    }
+
+    @Benchmark
+    public Object leanAssoc() {
+        return buildLean();
+    }
+
+    @Benchmark
+    public void longGet(Blackhole bh) {
+        for (int i = 0; i < keys.length; i++) {
+            bh.consume(long_map.get(keys[i]));
+        }
+    }
+
+    @Benchmark
+    public void leanGet(Blackhole bh) {
+        for (int i = 0; i < keys.length; i++) {
+            bh.consume(lean_map.valAt(keys[i]));
+        }
+    }
+}
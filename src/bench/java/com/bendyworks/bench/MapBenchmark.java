@@ -0,0 +1,167 @@
+package com.bendyworks.bench;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import clojure.java.api.Clojure;
+import clojure.lang.AFn;
+import clojure.lang.IEditableCollection;
+import clojure.lang.IFn;
+import clojure.lang.IHashEq;
+import clojure.lang.IKVReduce;
+import clojure.lang.IPersistentMap;
+import clojure.lang.ISeq;
+import clojure.lang.ITransientMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * The core map operations for LeanMap and PersistentHashMap, each over the whole map.
+ * Run with -prof gc for allocation per operation (script/clojure-bench.sh does by default).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class MapBenchmark {
+
+    @Param({"lean", "hash"})
+    public String impl;
+
+    @Param({"100", "10000", "1000000"})
+    public int size;
+
+    @Param({"long", "keyword", "string", "collision"})
+    public String keys;
+
+    static final IFn FOLD;
+
+    static {
+        Clojure.var("clojure.core", "require").invoke(Clojure.read("clojure.lean-map.util"));
+        FOLD = Clojure.var("clojure.core.reducers", "fold");
+    }
+
+    static final IFn COUNT_KV = new AFn() {
+        public Object invoke() {
+            return 0L;
+        }
+
+        public Object invoke(Object x, Object y) {
+            return ((Long) x) + ((Long) y);
+        }
+
+        public Object invoke(Object acc, Object key, Object val) {
+            return ((Long) acc) + 1L;
+        }
+    };
+
+    IPersistentMap empty;
+    IPersistentMap map;
+    IPersistentMap copy;
+    Object[] present;
+    Object[] missing;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        empty = Keys.empty(impl);
+        present = Keys.create(keys, 0, size);
+        missing = Keys.create(keys, size, size);
+        map = Keys.build(empty, present);
+        copy = Keys.build(empty, present);
+        ((IHashEq) map).hasheq();
+    }
+
+    @Benchmark
+    public Object assoc() {
+        IPersistentMap ret = empty;
+        for (int i = 0; i < present.length; i++) {
+            ret = ret.assoc(present[i], (long) i);
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public Object transientAssoc() {
+        ITransientMap ret = (ITransientMap) ((IEditableCollection) empty).asTransient();
+        for (int i = 0; i < present.length; i++) {
+            ret = ret.assoc(present[i], (long) i);
+        }
+        return ret.persistent();
+    }
+
+    @Benchmark
+    public Object without() {
+        IPersistentMap ret = map;
+        for (int i = 0; i < present.length; i++) {
+            ret = ret.without(present[i]);
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public void valAtHit(Blackhole bh) {
+        for (int i = 0; i < present.length; i++) {
+            bh.consume(map.valAt(present[i]));
+        }
+    }
+
+    @Benchmark
+    public void valAtMiss(Blackhole bh) {
+        for (int i = 0; i < missing.length; i++) {
+            bh.consume(map.valAt(missing[i]));
+        }
+    }
+
+    @Benchmark
+    public void iterator(Blackhole bh) {
+        for (Iterator it = ((Iterable) map).iterator(); it.hasNext();) {
+            bh.consume(it.next());
+        }
+    }
+
+    @Benchmark
+    public void seq(Blackhole bh) {
+        for (ISeq s = map.seq(); s != null; s = s.next()) {
+            bh.consume(s.first());
+        }
+    }
+
+    @Benchmark
+    public Object kvreduce() {
+        return ((IKVReduce) map).kvreduce(COUNT_KV, 0L);
+    }
+
+    /*
+     * Hash of a map one assoc away from an already hashed map
+     */
+    @Benchmark
+    public int hasheq() {
+        next = (next + 1) % size;
+        return ((IHashEq) map.assoc(present[next], -1L)).hasheq();
+    }
+
+    @Benchmark
+    public boolean equiv() {
+        return map.equiv(copy);
+    }
+
+    @Benchmark
+    public Object fold() {
+        return FOLD.invoke(COUNT_KV, COUNT_KV, map);
+    }
+}
@@ -0,0 +1,122 @@
+package com.bendyworks.bench;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import com.bendyworks.LeanMap;
+import com.bendyworks.LeanMapFormat;
+import com.bendyworks.MappedLeanMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * A map on disk made usable two ways: opening its image with MappedLeanMap, and reading it whole onto the heap
+ * with LeanMapFormat. Then gets of 1000 present keys from the mapped map, without and with a cache of decoded
+ * nodes, and from the LeanMap on the heap. Each get has a loop of its own, as in ScanBenchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class MappedBenchmark {
+
+    @Param({"long", "string"})
+    public String keys;
+
+    @Param({"1000000"})
+    public int size;
+
+    Path image;
+    Path format;
+    Object[] probes;
+    LeanMap heap;
+    MappedLeanMap mapped;
+    MappedLeanMap cached;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final LeanMap map = (LeanMap) Keys.build(LeanMap.EMPTY, Keys.create(keys, 0, size));
+        image = Files.createTempFile("lean-map", ".img");
+        MappedLeanMap.write(map, image);
+        format = Files.createTempFile("lean-map", ".lmap");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(format)))) {
+            LeanMapFormat.write(map, out);
+        }
+        probes = Keys.create(keys, 0, 1000);
+        heap = map;
+        mapped = MappedLeanMap.open(image);
+        cached = MappedLeanMap.open(image, LeanMapFormat.DEFAULT, 4096);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(image);
+        Files.deleteIfExists(format);
+    }
+
+    // an unused mapping stays until a GC finds its buffer, so opening in a loop would run out of address space
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10)
+    @Measurement(iterations = 20)
+    public Object open() throws IOException {
+        return MappedLeanMap.open(image);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10)
+    @Measurement(iterations = 20)
+    public Object load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(format)))) {
+            return LeanMapFormat.read(in);
+        }
+    }
+
+    @Benchmark
+    public int getMapped() {
+        int ret = 0;
+        for (int i = 0; i < probes.length; i++) {
+            ret += mapped.valAt(probes[i]).hashCode();
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public int getCached() {
+        int ret = 0;
+        for (int i = 0; i < probes.length; i++) {
+            ret += cached.valAt(probes[i]).hashCode();
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public int getHeap() {
+        int ret = 0;
+        for (int i = 0; i < probes.length; i++) {
+            ret += heap.valAt(probes[i]).hashCode();
+        }
+        return ret;
+    }
+}
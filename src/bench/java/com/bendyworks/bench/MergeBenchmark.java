@@ -0,0 +1,69 @@
+package com.bendyworks.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import clojure.java.api.Clojure;
+import clojure.lang.IFn;
+import clojure.lang.IPersistentMap;
+
+import com.bendyworks.LeanMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * LeanMap.merge against clojure.core/merge, which assocs the entries of the right map one at a time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class MergeBenchmark {
+
+    @Param({"lean", "hashed"})
+    public String impl;
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    /*
+     * Percentage of the right map's keys that are also in the left map
+     */
+    @Param({"0", "50", "100"})
+    public int overlap;
+
+    static final IFn MERGE = Clojure.var("clojure.core", "merge");
+
+    LeanMap left;
+    LeanMap right;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final IPersistentMap empty = Keys.empty(impl);
+        final int from = size - (int) (((long) size * overlap) / 100);
+        left = (LeanMap) Keys.build(empty, Keys.create("long", 0, size));
+        right = (LeanMap) Keys.build(empty, Keys.create("long", from, size));
+    }
+
+    @Benchmark
+    public Object merge() {
+        return left.merge(right, null);
+    }
+
+    @Benchmark
+    public Object assocAll() {
+        return MERGE.invoke(left, right);
+    }
+}
@@ -0,0 +1,67 @@
+package com.bendyworks.bench;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import com.bendyworks.LeanMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Scaling of the parallel bulk build across fork/join pools of 1 to N workers.
+ * parallelism = 0 runs the sequential LeanMap.create as the baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class ParallelCreateBenchmark {
+
+    @Param({"1000000", "10000000"})
+    public int size;
+
+    @Param({"0", "1", "2", "4", "8"})
+    public int parallelism;
+
+    Object[] init;
+    ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        init = new Object[2 * size];
+        for (int i = 0; i < size; i++) {
+            init[2 * i] = (long) i;
+            init[(2 * i) + 1] = (long) i;
+        }
+        pool = (parallelism == 0) ? null : new ForkJoinPool(parallelism);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public Object create() {
+        if (pool == null) {
+            return LeanMap.create(init);
+        }
+        return LeanMap.create(pool, false, false, init);
+    }
+}
@@ -0,0 +1,95 @@
+package com.bendyworks.bench;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import clojure.lang.IMapIterable;
+import clojure.lang.IPersistentMap;
+
+import com.bendyworks.LeanMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Key-only and value-only scans through keyIterator and valIterator, and through LeanMap's cursor. Each scan
+ * has a loop of its own, so its call sites only see the one iterator class, and sums the hashes of what it
+ * reads rather than calling a Blackhole per element.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class ScanBenchmark {
+
+    @Param({"lean", "hash"})
+    public String impl;
+
+    @Param({"1000000"})
+    public int size;
+
+    IPersistentMap map;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        map = Keys.build(Keys.empty(impl), Keys.create("long", 0, size));
+    }
+
+    @Benchmark
+    public int keys() {
+        final Iterator it = ((IMapIterable) map).keyIterator();
+        int ret = 0;
+        while (it.hasNext()) {
+            ret += it.next().hashCode();
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public int vals() {
+        final Iterator it = ((IMapIterable) map).valIterator();
+        int ret = 0;
+        while (it.hasNext()) {
+            ret += it.next().hashCode();
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public int cursorKeys() {
+        if (!(map instanceof LeanMap)) {
+            return keys();
+        }
+        final LeanMap.Cursor c = ((LeanMap) map).cursor();
+        int ret = 0;
+        while (c.advance()) {
+            ret += c.key().hashCode();
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public int cursorVals() {
+        if (!(map instanceof LeanMap)) {
+            return vals();
+        }
+        final LeanMap.Cursor c = ((LeanMap) map).cursor();
+        int ret = 0;
+        while (c.advance()) {
+            ret += c.val().hashCode();
+        }
+        return ret;
+    }
+}
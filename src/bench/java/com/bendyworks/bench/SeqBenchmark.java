@@ -0,0 +1,83 @@
+package com.bendyworks.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import clojure.java.api.Clojure;
+import clojure.lang.IChunk;
+import clojure.lang.IChunkedSeq;
+import clojure.lang.IFn;
+import clojure.lang.IPersistentMap;
+import clojure.lang.ISeq;
+import clojure.lang.RT;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Walking a map's seq: entry by entry with first/next, chunk by chunk where the seq is chunked, and through
+ * clojure.core/map, which takes the chunked path by itself. Run with -prof gc for the bytes allocated per walk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class SeqBenchmark {
+
+    @Param({"lean", "hash"})
+    public String impl;
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    static final IFn MAP = Clojure.var("clojure.core", "map");
+    static final IFn KEY = Clojure.var("clojure.core", "key");
+
+    IPersistentMap map;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        map = Keys.build(Keys.empty(impl), Keys.create("long", 0, size));
+    }
+
+    @Benchmark
+    public void firstNext(Blackhole bh) {
+        for (ISeq s = map.seq(); s != null; s = s.next()) {
+            bh.consume(s.first());
+        }
+    }
+
+    @Benchmark
+    public void chunks(Blackhole bh) {
+        ISeq s = map.seq();
+        while (s != null) {
+            if (s instanceof IChunkedSeq) {
+                final IChunk chunk = ((IChunkedSeq) s).chunkedFirst();
+                for (int i = 0; i < chunk.count(); i++) {
+                    bh.consume(chunk.nth(i));
+                }
+                s = ((IChunkedSeq) s).chunkedNext();
+            } else {
+                bh.consume(s.first());
+                s = s.next();
+            }
+        }
+    }
+
+    @Benchmark
+    public int coreMap() {
+        return RT.count(MAP.invoke(KEY, map));
+    }
+}
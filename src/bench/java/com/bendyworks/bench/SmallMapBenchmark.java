@@ -0,0 +1,94 @@
+package com.bendyworks.bench;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import clojure.lang.IPersistentMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Record sized maps, where LeanMap keeps a flat array up to 8 entries, against PersistentArrayMap
+ * (-p impl=array) and PersistentHashMap. 16 entries is past the flat mode on both array maps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SmallMapBenchmark {
+
+    @Param({"lean", "array", "hash"})
+    public String impl;
+
+    @Param({"2", "4", "8", "16"})
+    public int size;
+
+    @Param({"keyword", "string"})
+    public String keys;
+
+    IPersistentMap empty;
+    IPersistentMap map;
+    Object[] present;
+    Object[] missing;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        empty = Keys.empty(impl);
+        present = Keys.create(keys, 0, size);
+        missing = Keys.create(keys, size, size);
+        map = assoc();
+    }
+
+    @Benchmark
+    public IPersistentMap assoc() {
+        IPersistentMap ret = empty;
+        for (int i = 0; i < present.length; i++) {
+            ret = ret.assoc(present[i], present[i]);
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public Object without() {
+        IPersistentMap ret = map;
+        for (int i = 0; i < present.length; i++) {
+            ret = ret.without(present[i]);
+        }
+        return ret;
+    }
+
+    @Benchmark
+    public void valAtHit(Blackhole bh) {
+        for (int i = 0; i < present.length; i++) {
+            bh.consume(map.valAt(present[i]));
+        }
+    }
+
+    @Benchmark
+    public void valAtMiss(Blackhole bh) {
+        for (int i = 0; i < missing.length; i++) {
+            bh.consume(map.valAt(missing[i]));
+        }
+    }
+
+    @Benchmark
+    public void iterator(Blackhole bh) {
+        for (Iterator it = ((Iterable) map).iterator(); it.hasNext();) {
+            bh.consume(it.next());
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.bendyworks.bench;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * A Java stream over entrySet, sequential and parallel on the common pool. LeanMap splits along its trie,
+ * PersistentHashMap has the default spliterator of a collection, which copies batches of the iterator
+ * into arrays. The work per entry is a little math so that splitting has something to win.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class StreamBenchmark {
+
+    @Param({"lean", "hash"})
+    public String impl;
+
+    @Param({"1000000"})
+    public int size;
+
+    static final ToLongFunction<Object> WORK = new ToLongFunction<Object>() {
+        public long applyAsLong(Object o) {
+            final long v = (Long) ((Map.Entry) o).getValue();
+            return (long) (Math.sqrt(v) * Math.sin(v));
+        }
+    };
+
+    Map<?, ?> map;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        map = (Map<?, ?>) Keys.build(Keys.empty(impl), Keys.create("long", 0, size));
+    }
+
+    @Benchmark
+    public long sequential() {
+        return map.entrySet().stream().mapToLong(WORK).sum();
+    }
+
+    @Benchmark
+    public long parallel() {
+        return map.entrySet().parallelStream().mapToLong(WORK).sum();
+    }
+}
@@ -0,0 +1,69 @@
+package com.bendyworks.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import clojure.lang.IEditableCollection;
+import clojure.lang.IPersistentMap;
+import clojure.lang.ITransientMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Transient build throughput, the bulk-build loop: assoc! of new keys into an empty transient, and assoc! of
+ * existing keys into a transient of the full map, which writes no count. PersistentHashMap's transient keeps
+ * volatile root and count fields and is the baseline for the cost of the barriers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class TransientBenchmark {
+
+    @Param({"lean", "hashed", "hash"})
+    public String impl;
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    Object[] keys;
+    IPersistentMap empty;
+    IPersistentMap full;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        keys = Keys.create("long", 0, size);
+        empty = Keys.empty(impl);
+        full = Keys.build(empty, keys);
+    }
+
+    @Benchmark
+    public Object build() {
+        ITransientMap ret = (ITransientMap) ((IEditableCollection) empty).asTransient();
+        for (int i = 0; i < keys.length; i++) {
+            ret = ret.assoc(keys[i], keys[i]);
+        }
+        return ret.persistent();
+    }
+
+    @Benchmark
+    public Object update() {
+        ITransientMap ret = (ITransientMap) ((IEditableCollection) full).asTransient();
+        for (int i = 0; i < keys.length; i++) {
+            ret = ret.assoc(keys[i], keys[i]);
+        }
+        return ret.persistent();
+    }
+}
@@ -0,0 +1,75 @@
+package com.bendyworks.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.bendyworks.LeanMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * One batch of random lookups, half of them hits, through valAtAll against a valAt per key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class ValAtAllBenchmark {
+
+    @Param({"lean", "hashed"})
+    public String impl;
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    @Param({"20", "200"})
+    public int batch;
+
+    @Param({"long", "string"})
+    public String keys;
+
+    LeanMap map;
+    Object[] lookups;
+    Object[] vals;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final Object[] present = Keys.create(keys, 0, size);
+        final Object[] missing = Keys.create(keys, size, size);
+        map = (LeanMap) Keys.build(Keys.empty(impl), present);
+
+        final Random random = new Random(42);
+        lookups = new Object[batch];
+        for (int i = 0; i < batch; i++) {
+            lookups[i] = ((i % 2) == 0) ? present[random.nextInt(size)] : missing[random.nextInt(size)];
+        }
+        vals = new Object[batch];
+    }
+
+    @Benchmark
+    public Object valAtAll() {
+        map.valAtAll(lookups, vals, null);
+        return vals;
+    }
+
+    @Benchmark
+    public Object valAt() {
+        for (int i = 0; i < lookups.length; i++) {
+            vals[i] = map.valAt(lookups[i]);
+        }
+        return vals;
+    }
+}
@@ -1,12 +1,183 @@
 (ns clojure.lean-map.util
-  (:import [clojure.lang LeanMap])
-  (:refer-clojure :exclude [empty hash-map]))
+  (:require [clojure.core.reducers :as r])
+  (:import [com.bendyworks ConcurrentLeanMap LeanMap LeanMap$TransientLeanMap LeanMapFormat LongLeanMap MappedLeanMap]
+           [java.io ByteArrayInputStream ByteArrayOutputStream DataInputStream DataOutputStream File])
+  (:refer-clojure :exclude [empty hash-map merge merge-with]))
 
 (def empty LeanMap/EMPTY)
 
+(def empty-hashed
+  "An empty lean map that stores the hash of every key next to it."
+  LeanMap/EMPTY_HASHED)
+
+(def empty-long
+  "An empty lean map keyed by longs, stored unboxed."
+  LongLeanMap/EMPTY)
+
 (defn hash-map
   "keyval => key val
   Returns a new lean map with supplied mappings."
   ([] {})
   ([& keyvals]
-   (. LeanMap (create keyvals))))
\ No newline at end of file
+   (. LeanMap (create keyvals))))
+
+(defn root-slot
+  "Returns the root slot of key k, 0 to 31, which picks the child of fork! that takes it."
+  [k]
+  (LeanMap$TransientLeanMap/slotOf k))
+
+(defn fork!
+  "Splits transient lean map t into a vector of 32 transients, the i-th taking
+  the keys whose root-slot is i. Different threads can fill different children
+  at once. t can not be used until join!."
+  [^LeanMap$TransientLeanMap t]
+  (vec (.fork t)))
+
+(defn join!
+  "Takes the entries of children, as returned by fork!, back into transient
+  lean map t in constant time and returns t. The children can not be used
+  afterwards."
+  [^LeanMap$TransientLeanMap t children]
+  (.join t (into-array LeanMap$TransientLeanMap children)))
+
+(defn concurrent-map
+  "Returns a new mutable map for many threads, a java.util.concurrent.ConcurrentMap
+  hashed like lean maps. Writers only contend on keys that share a root slot."
+  ([] (ConcurrentLeanMap.))
+  ([m] (ConcurrentLeanMap. ^java.util.Map m)))
+
+(defn snapshot
+  "Returns the entries of concurrent map m at one point in time as a lean map,
+  in constant time. The snapshot shares its nodes with m."
+  [^ConcurrentLeanMap m]
+  (.snapshot m))
+
+(defn to-bytes
+  "Returns lean map m in LeanMapFormat, its trie written as it is. Keys and vals go through codec, by default
+  LeanMapFormat/DEFAULT, which takes nil, booleans, numbers, strings, keywords, symbols and lean maps."
+  ([m]
+   (to-bytes m LeanMapFormat/DEFAULT))
+  ([m codec]
+   (let [bytes (ByteArrayOutputStream.)]
+     (with-open [out (DataOutputStream. bytes)]
+       (LeanMapFormat/write m out codec))
+     (.toByteArray bytes))))
+
+(defn from-bytes
+  "Returns the lean map to-bytes wrote, built node by node without hashing a key."
+  ([bytes]
+   (from-bytes bytes LeanMapFormat/DEFAULT))
+  ([bytes codec]
+   (with-open [in (DataInputStream. (ByteArrayInputStream. bytes))]
+     (LeanMapFormat/read in codec))))
+
+(defn write-image
+  "Writes lean map m to file as an image that mapped can open, with keys and vals through codec as in to-bytes."
+  ([m ^File file]
+   (write-image m file LeanMapFormat/DEFAULT))
+  ([m ^File file codec]
+   (MappedLeanMap/write m (.toPath file) codec)))
+
+(defn mapped
+  "Returns a read-only map over the image in file, mapped into memory and decoded a node at a time as it is
+  read. cache-size is the number of nodes whose decoded entries are kept, 0 for none."
+  ([^File file]
+   (mapped file LeanMapFormat/DEFAULT 0))
+  ([^File file codec cache-size]
+   (MappedLeanMap/open (.toPath file) codec (int cache-size))))
+
+(defn- merge-two [f m o]
+  (if (and (instance? LeanMap m) (instance? LeanMap o))
+    (.merge ^LeanMap m ^LeanMap o f)
+    (if f
+      (clojure.core/merge-with f m o)
+      (clojure.core/merge m o))))
+
+(defn merge-with
+  "Like clojure.core/merge-with, lean maps are merged trie to trie."
+  [f & maps]
+  (when (some identity maps)
+    (reduce (partial merge-two f) maps)))
+
+(defn merge
+  "Like clojure.core/merge, lean maps are merged trie to trie."
+  [& maps]
+  (when (some identity maps)
+    (reduce (partial merge-two nil) maps)))
+
+(defn assoc-all
+  "Returns lean map m with each of ks associated to the matching v in vs.
+  Every node on the updated paths is copied once."
+  [^LeanMap m ks vs]
+  (.assocAll m (to-array ks) (to-array vs)))
+
+(defn dissoc-all
+  "Returns lean map m without any of ks. Every node on the updated paths
+  is copied once."
+  [^LeanMap m ks]
+  (.withoutAll m (to-array ks)))
+
+(defn vals-at
+  "Returns a vector of the values of ks in lean map m, or not-found for
+  missing keys. The keys descend the trie together, a level at a time."
+  ([^LeanMap m ks]
+   (vals-at m ks nil))
+  ([^LeanMap m ks not-found]
+   (let [ks (to-array ks)
+         vs (object-array (alength ks))]
+     (.valAtAll m ks vs not-found)
+     (vec vs))))
+
+(defn changes
+  "Returns a reducible of the [kind key old-val new-val] changes from lean
+  map a to lean map b, where kind is :added, :removed or :changed. Subtrees
+  the two maps share are skipped."
+  [^LeanMap a ^LeanMap b]
+  (reify clojure.lang.IReduceInit
+    (reduce [_ f init]
+      (.diff a b (fn [acc kind k old-val new-val] (f acc [kind k old-val new-val])) init))))
+
+(defn diff
+  "Returns {:added {k new-val} :removed {k old-val} :changed {k [old-val new-val]}}
+  from lean map a to lean map b."
+  [^LeanMap a ^LeanMap b]
+  (.diff a b
+         (fn [acc kind k old-val new-val]
+           (case kind
+             :added (assoc-in acc [:added k] new-val)
+             :removed (assoc-in acc [:removed k] old-val)
+             :changed (assoc-in acc [:changed k] [old-val new-val])))
+         {:added {} :removed {} :changed {}}))
+
+(defn- histogram [counts]
+  (into (sorted-map) (keep-indexed (fn [i n] (when (pos? n) [i n]))) counts))
+
+(defn stats
+  "Returns the shape of lean map m's trie:
+  :nodes            node count per depth, the root at depth 0
+  :data-arity       {inline entries nodes}, collision nodes left out
+  :node-arity       {sub nodes nodes}, collision nodes left out
+  :collision-nodes  number of hash collision nodes
+  :collision-sizes  {entries collision nodes}
+  :max-depth        depth of the deepest node
+  :bytes            estimated bytes of the nodes and arrays, keys and vals not included
+  :shared-bytes     the part of :bytes in nodes lean map other also reaches"
+  ([^LeanMap m]
+   (stats m nil))
+  ([^LeanMap m ^LeanMap other]
+   (let [s (.stats m other)]
+     {:count (.count s)
+      :nodes (vec (.nodesPerDepth s))
+      :data-arity (histogram (.dataArities s))
+      :node-arity (histogram (.nodeArities s))
+      :collision-nodes (.collisionNodes s)
+      :collision-sizes (histogram (.collisionSizes s))
+      :max-depth (.maxDepth s)
+      :bytes (.bytes s)
+      :shared-bytes (.sharedBytes s)})))
+
+(extend-protocol r/CollFold
+  LeanMap
+  (coll-fold
+    [m n combinef reducef]
+    (.fold m n combinef reducef @#'r/fjinvoke @#'r/fjtask @#'r/fjfork @#'r/fjjoin)))
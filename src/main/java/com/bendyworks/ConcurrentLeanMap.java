@@ -0,0 +1,432 @@
+package com.bendyworks;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import clojure.lang.AFn;
+import clojure.lang.Box;
+import clojure.lang.Util;
+
+import com.bendyworks.LeanMap.BitmapIndexedNode;
+import com.bendyworks.LeanMap.INode;
+
+/*
+ * A mutable map for many threads, keyed and hashed like LeanMap. The first level of the trie is a table of 32
+ * slots, each holding the persistent LeanMap subtree of the keys whose hash ends in the slot's 5 bits. A writer
+ * copies the path to its key in one subtree and compare and sets the slot, the way a Ctrie sets an indirection
+ * node, so writers only race on keys that share a slot and a lost race retries one subtree path, not the whole
+ * map as swap! on an atom does. Reads never block or retry.
+ *
+ * snapshot() returns the entries at one point in time as a LeanMap in O(32): it freezes every slot of the table,
+ * writers finding a frozen slot help finish the snapshot and move on to a new table holding the same subtrees,
+ * and the LeanMap's root is built over the frozen ones. Subtrees are never mutated, so the map and all of its
+ * snapshots share them.
+ *
+ * Null values are not allowed, as in ConcurrentHashMap, since get returns null for a missing key.
+ * The collection views are weakly consistent like ConcurrentHashMap's and read the live table without freezing
+ * it, so only snapshot() makes writers move to a new table.
+ */
+public class ConcurrentLeanMap extends AbstractMap<Object, Object> implements ConcurrentMap<Object, Object> {
+
+    // subtrees sit under the first 5 bits of the hash
+    static final int SHIFT = 5;
+    static final int SLOTS = 32;
+
+    final AtomicReference<Table> table = new AtomicReference<Table>(new Table());
+
+    public ConcurrentLeanMap() {
+    }
+
+    public ConcurrentLeanMap(Map<?, ?> other) {
+        putAll(other);
+    }
+
+    /*
+     * The entries and count of the keys in one slot, immutable. A frozen slot belongs to a snapshot.
+     */
+    static final class Slot {
+        static final Slot EMPTY = new Slot(null, 0, false);
+
+        final INode node;
+        final int count;
+        final boolean frozen;
+
+        Slot(INode node, int count, boolean frozen) {
+            this.node = node;
+            this.count = count;
+            this.frozen = frozen;
+        }
+
+        Object find(int hash, Object key, Object not_found) {
+            return (this.node == null) ? not_found : this.node.find(SHIFT, hash, key, not_found);
+        }
+
+        Slot assoc(int hash, Object key, Object val) {
+            final Box added_leaf = new Box(null);
+            final INode node = ((this.node == null) ? BitmapIndexedNode.EMPTY : this.node).assoc(null, SHIFT, hash, key, val, added_leaf);
+            if (node == this.node) {
+                return this;
+            }
+            return new Slot(node, ((added_leaf.val == null) ? this.count : (this.count + 1)), false);
+        }
+
+        Slot without(int hash, Object key) {
+            if (this.node == null) {
+                return this;
+            }
+            final INode node = this.node.without(null, SHIFT, hash, key, new Box(null));
+            if (node == this.node) {
+                return this;
+            }
+            if (this.count == 1) {
+                return EMPTY;
+            }
+            if (this.count == 2) {
+                // without leaves a last entry ready to be inlined at shift 0, rebuild it as assoc would have
+                final Object[] entry = entry(node);
+                return EMPTY.assoc(Util.hasheq(entry[0]), entry[0], entry[1]);
+            }
+            return new Slot(node, (this.count - 1), false);
+        }
+
+        /*
+         * The key and val of a node holding one entry
+         */
+        static Object[] entry(INode node) {
+            final Object[] entry = new Object[2];
+            node.kvreduce(new AFn() {
+                public Object invoke(Object acc, Object key, Object val) {
+                    entry[0] = key;
+                    entry[1] = val;
+                    return acc;
+                }
+            }, null);
+            return entry;
+        }
+    }
+
+    static final class Table {
+        final AtomicReferenceArray<Slot> slots;
+        // the table writers move on to once this one is frozen
+        final AtomicReference<Table> next = new AtomicReference<Table>();
+
+        Table() {
+            this.slots = new AtomicReferenceArray<Slot>(SLOTS);
+            for (int i = 0; i < SLOTS; i++) {
+                this.slots.set(i, Slot.EMPTY);
+            }
+        }
+
+        Table(Slot[] slots) {
+            this.slots = new AtomicReferenceArray<Slot>(slots);
+        }
+    }
+
+    /*
+     * Freezes every slot of table and installs its successor, from snapshot() or from a writer that found a
+     * slot frozen. Writes that set a slot before it froze are in the snapshot, later ones wait for the
+     * successor, so the snapshot is the map as it was when its last slot froze.
+     */
+    private void freeze(Table table) {
+        final Slot[] thawed = new Slot[SLOTS];
+        for (int i = 0; i < SLOTS; i++) {
+            Slot slot = table.slots.get(i);
+            while (!slot.frozen) {
+                final Slot frozen = new Slot(slot.node, slot.count, true);
+                if (table.slots.compareAndSet(i, slot, frozen)) {
+                    slot = frozen;
+                } else {
+                    slot = table.slots.get(i);
+                }
+            }
+            thawed[i] = (slot.count == 0) ? Slot.EMPTY : new Slot(slot.node, slot.count, false);
+        }
+        table.next.compareAndSet(null, new Table(thawed));
+        this.table.compareAndSet(table, table.next.get());
+    }
+
+    /*
+     * A LeanMap of the entries as they are now, sharing its nodes with this map
+     */
+    public LeanMap snapshot() {
+        final Table table = this.table.get();
+        freeze(table);
+
+        final LeanMap.RootBuilder builder = new LeanMap.RootBuilder(false);
+        int count = 0;
+        for (int i = 0; i < SLOTS; i++) {
+            final Slot slot = table.slots.get(i);
+            count += slot.count;
+            if (slot.count == 1) {
+                final Object[] single = slot.node.getArray();
+                builder.entry(i, 0, single[0], single[1]);
+            } else if (slot.count > 1) {
+                builder.node(i, slot.node);
+            }
+        }
+        if (count == 0) {
+            return LeanMap.EMPTY;
+        }
+        final INode root = builder.build(null);
+        return new LeanMap(count, LeanMap.flatten(root, count));
+    }
+
+    private static Object checkValue(Object val) {
+        if (val == null) {
+            throw new NullPointerException("ConcurrentLeanMap does not take null values");
+        }
+        return val;
+    }
+
+    public Object get(Object key) {
+        final int hash = Util.hasheq(key);
+        return this.table.get().slots.get(LeanMap.mask(hash, 0)).find(hash, key, null);
+    }
+
+    public boolean containsKey(Object key) {
+        return (get(key) != null);
+    }
+
+    /*
+     * The sum of the slot counts, exact unless writes run while it is summed
+     */
+    public int size() {
+        final Table table = this.table.get();
+        int count = 0;
+        for (int i = 0; i < SLOTS; i++) {
+            count += table.slots.get(i).count;
+        }
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return (size() == 0);
+    }
+
+    public Object put(Object key, Object val) {
+        checkValue(val);
+        final int hash = Util.hasheq(key);
+        final int idx = LeanMap.mask(hash, 0);
+        while (true) {
+            final Table table = this.table.get();
+            final Slot slot = table.slots.get(idx);
+            if (slot.frozen) {
+                freeze(table);
+                continue;
+            }
+            final Object old = slot.find(hash, key, null);
+            final Slot new_slot = slot.assoc(hash, key, val);
+            if ((new_slot == slot) || table.slots.compareAndSet(idx, slot, new_slot)) {
+                return old;
+            }
+        }
+    }
+
+    public Object putIfAbsent(Object key, Object val) {
+        checkValue(val);
+        final int hash = Util.hasheq(key);
+        final int idx = LeanMap.mask(hash, 0);
+        while (true) {
+            final Table table = this.table.get();
+            final Slot slot = table.slots.get(idx);
+            if (slot.frozen) {
+                freeze(table);
+                continue;
+            }
+            final Object old = slot.find(hash, key, null);
+            if ((old != null) || table.slots.compareAndSet(idx, slot, slot.assoc(hash, key, val))) {
+                return old;
+            }
+        }
+    }
+
+    public Object replace(Object key, Object val) {
+        checkValue(val);
+        final int hash = Util.hasheq(key);
+        final int idx = LeanMap.mask(hash, 0);
+        while (true) {
+            final Table table = this.table.get();
+            final Slot slot = table.slots.get(idx);
+            if (slot.frozen) {
+                freeze(table);
+                continue;
+            }
+            final Object old = slot.find(hash, key, null);
+            if (old == null) {
+                return null;
+            }
+            final Slot new_slot = slot.assoc(hash, key, val);
+            if ((new_slot == slot) || table.slots.compareAndSet(idx, slot, new_slot)) {
+                return old;
+            }
+        }
+    }
+
+    public boolean replace(Object key, Object old_val, Object new_val) {
+        checkValue(new_val);
+        final int hash = Util.hasheq(key);
+        final int idx = LeanMap.mask(hash, 0);
+        while (true) {
+            final Table table = this.table.get();
+            final Slot slot = table.slots.get(idx);
+            if (slot.frozen) {
+                freeze(table);
+                continue;
+            }
+            final Object old = slot.find(hash, key, null);
+            if ((old == null) || !Util.equals(old, old_val)) {
+                return false;
+            }
+            final Slot new_slot = slot.assoc(hash, key, new_val);
+            if ((new_slot == slot) || table.slots.compareAndSet(idx, slot, new_slot)) {
+                return true;
+            }
+        }
+    }
+
+    public Object remove(Object key) {
+        final int hash = Util.hasheq(key);
+        final int idx = LeanMap.mask(hash, 0);
+        while (true) {
+            final Table table = this.table.get();
+            final Slot slot = table.slots.get(idx);
+            if (slot.frozen) {
+                freeze(table);
+                continue;
+            }
+            final Object old = slot.find(hash, key, null);
+            if ((old == null) || table.slots.compareAndSet(idx, slot, slot.without(hash, key))) {
+                return old;
+            }
+        }
+    }
+
+    public boolean remove(Object key, Object val) {
+        final int hash = Util.hasheq(key);
+        final int idx = LeanMap.mask(hash, 0);
+        while (true) {
+            final Table table = this.table.get();
+            final Slot slot = table.slots.get(idx);
+            if (slot.frozen) {
+                freeze(table);
+                continue;
+            }
+            final Object old = slot.find(hash, key, null);
+            if ((old == null) || !Util.equals(old, val)) {
+                return false;
+            }
+            if (table.slots.compareAndSet(idx, slot, slot.without(hash, key))) {
+                return true;
+            }
+        }
+    }
+
+    /*
+     * Empties the slots one at a time, like ConcurrentHashMap.clear it is not atomic
+     */
+    public void clear() {
+        for (int i = 0; i < SLOTS; i++) {
+            while (true) {
+                final Table table = this.table.get();
+                final Slot slot = table.slots.get(i);
+                if (slot.frozen) {
+                    freeze(table);
+                    continue;
+                }
+                if ((slot.count == 0) || table.slots.compareAndSet(i, slot, Slot.EMPTY)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /*
+     * Reads each slot of the current table as it gets to it, so it sees every entry that is in the map for the
+     * whole iteration and may or may not see the others. remove writes through.
+     */
+    final class EntryIter implements Iterator<Map.Entry<Object, Object>> {
+        int slot;
+        LeanMap.Cursor cursor;
+        Map.Entry<Object, Object> next;
+        Map.Entry<Object, Object> last;
+
+        public boolean hasNext() {
+            while (this.next == null) {
+                if ((this.cursor != null) && this.cursor.advance()) {
+                    this.next = new AbstractMap.SimpleImmutableEntry<Object, Object>(this.cursor.key(), this.cursor.val());
+                } else if (this.slot < SLOTS) {
+                    final Slot slot = ConcurrentLeanMap.this.table.get().slots.get(this.slot++);
+                    this.cursor = (slot.node == null) ? null : new LeanMap.Cursor(slot.node);
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public Map.Entry<Object, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            this.last = this.next;
+            this.next = null;
+            return this.last;
+        }
+
+        public void remove() {
+            if (this.last == null) {
+                throw new IllegalStateException();
+            }
+            ConcurrentLeanMap.this.remove(this.last.getKey(), this.last.getValue());
+            this.last = null;
+        }
+    }
+
+    /*
+     * A view of the live map for AbstractMap's equals, hashCode, toString and the other views, snapshot() is the
+     * way to see all of the entries at one point in time
+     */
+    public Set<Map.Entry<Object, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<Object, Object>>() {
+            public Iterator<Map.Entry<Object, Object>> iterator() {
+                return new EntryIter();
+            }
+
+            public int size() {
+                return ConcurrentLeanMap.this.size();
+            }
+
+            public boolean isEmpty() {
+                return ConcurrentLeanMap.this.isEmpty();
+            }
+
+            public boolean contains(Object o) {
+                if (!(o instanceof Map.Entry)) {
+                    return false;
+                }
+                final Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                final Object val = get(e.getKey());
+                return (val != null) && Util.equals(val, e.getValue());
+            }
+
+            public boolean remove(Object o) {
+                if (!(o instanceof Map.Entry)) {
+                    return false;
+                }
+                final Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                return ConcurrentLeanMap.this.remove(e.getKey(), e.getValue());
+            }
+
+            public void clear() {
+                ConcurrentLeanMap.this.clear();
+            }
+        };
+    }
+}
@@ -5,8 +5,11 @@ import java.util.Iterator;
 import clojure.lang.AFn;
 import clojure.lang.APersistentMap;
 import clojure.lang.ASeq;
+import clojure.lang.ArrayChunk;
 import clojure.lang.Box;
 import clojure.lang.IDeref;
+import clojure.lang.IChunk;
+import clojure.lang.IChunkedSeq;
 import clojure.lang.IEditableCollection;
 import clojure.lang.IFn;
 import clojure.lang.IKVReduce;
@@ -18,15 +21,22 @@ import clojure.lang.IPersistentMap;
 import clojure.lang.IPersistentVector;
 import clojure.lang.ISeq;
 import clojure.lang.ITransientMap;
+import clojure.lang.Keyword;
 import clojure.lang.MapEntry;
+import clojure.lang.Murmur3;
 import clojure.lang.Obj;
+import clojure.lang.PersistentList;
 import clojure.lang.RT;
+import clojure.lang.Symbol;
 import clojure.lang.Util;
 
 import java.util.*;
 import java.io.Serializable;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 public class LeanMap extends APersistentMap implements IEditableCollection, IObj, IMapIterable, IKVReduce {
 
@@ -47,67 +57,397 @@ public class LeanMap extends APersistentMap implements IEditableCollection, IObj
     }
 
     final public static LeanMap EMPTY = new LeanMap(0, null);
+    /*
+     * Maps built from EMPTY_HASHED keep the key hashes next to the inline entries,
+     * trading an int per entry for never rehashing keys on collisions, compaction and lookup misses
+     */
+    final public static LeanMap EMPTY_HASHED = new LeanMap(0, BitmapIndexedNode.EMPTY_HASHED);
     final private static Object NOT_FOUND = new Object();
+    /*
+     * Maps of up to this many entries that are not hashed keep them in a FlatNode rather than a trie
+     */
+    static final int FLAT_THRESHOLD = 8;
 
     static public IPersistentMap create(Map other){
-        ITransientMap ret = EMPTY.asTransient();
+        final int n = other.size();
+        final Object[] keys = new Object[n];
+        final Object[] vals = new Object[n];
+        int i = 0;
         for(Object o : other.entrySet())
         {
             Map.Entry e = (Entry) o;
-            ret = ret.assoc(e.getKey(), e.getValue());
+            keys[i] = e.getKey();
+            vals[i] = e.getValue();
+            i++;
         }
-        return ret.persistent();
+        return build(keys, vals, i, false, false);
     }
 
     /*
      * @param init {key1,val1,key2,val2,...}
      */
     public static LeanMap create(Object... init){
-        ITransientMap ret = EMPTY.asTransient();
-        for(int i = 0; i < init.length; i += 2)
-        {
-            ret = ret.assoc(init[i], init[i + 1]);
-        }
-        return (LeanMap) ret.persistent();
+        return create(false, false, init);
     }
 
     public static LeanMap createWithCheck(Object... init){
-        ITransientMap ret = EMPTY.asTransient();
-        for(int i = 0; i < init.length; i += 2)
+        return create(false, true, init);
+    }
+
+    /*
+     * @param hashed whether to build the map EMPTY_HASHED would, with the key hashes stored next to the entries
+     * @param check whether to throw on duplicate keys rather than keep the last value
+     * @param init {key1,val1,key2,val2,...}
+     */
+    public static LeanMap create(boolean hashed, boolean check, Object... init){
+        final int n = entryCount(init);
+        final Object[] keys = new Object[n];
+        final Object[] vals = new Object[n];
+        for(int i = 0; i < n; i++)
         {
-            ret = ret.assoc(init[i], init[i + 1]);
-            if(ret.count() != ((i / 2) + 1)) {
-                throw new IllegalArgumentException("Duplicate key: " + init[i]);
-            }
+            keys[i] = init[(2 * i)];
+            vals[i] = init[((2 * i) + 1)];
         }
-        return (LeanMap) ret.persistent();
+        return build(keys, vals, n, hashed, check);
+    }
+
+    private static int entryCount(Object[] init){
+        if((init.length % 2) != 0) {
+            throw new IllegalArgumentException(String.format("No value supplied for key: %s", init[(init.length - 1)]));
+        }
+        return (init.length / 2);
     }
 
     static public LeanMap create(ISeq items){
-        ITransientMap ret = EMPTY.asTransient();
+        return create(items, false);
+    }
+
+    static public LeanMap createWithCheck(ISeq items){
+        return create(items, true);
+    }
+
+    private static LeanMap create(ISeq items, boolean check){
+        Object[] keys = new Object[8];
+        Object[] vals = new Object[8];
+        int n = 0;
         for(; items != null; items = items.next().next())
         {
             if(items.next() == null) {
                 throw new IllegalArgumentException(String.format("No value supplied for key: %s", items.first()));
             }
-            ret = ret.assoc(items.first(), RT.second(items));
+            if(n == keys.length) {
+                keys = Arrays.copyOf(keys, (2 * n));
+                vals = Arrays.copyOf(vals, (2 * n));
+            }
+            keys[n] = items.first();
+            vals[n] = RT.second(items);
+            n++;
         }
-        return (LeanMap) ret.persistent();
+        return build(keys, vals, n, false, check);
     }
 
-    static public LeanMap createWithCheck(ISeq items){
-        ITransientMap ret = EMPTY.asTransient();
-        for(int i=0; items != null; items = items.next().next(), ++i)
-        {
-            if(items.next() == null) {
-                throw new IllegalArgumentException(String.format("No value supplied for key: %s", items.first()));
+    /*
+     * Builds the trie bottom-up instead of assoc'ing one key at a time. Every key is hashed once, the entries
+     * are sorted so that each subtree's entries are contiguous, and every node is allocated once at its final
+     * size. The result has the same shape an assoc'd map would have, keeping the first key and last value of
+     * duplicates.
+     */
+    static LeanMap build(Object[] keys, Object[] vals, int n, boolean hashed, boolean check){
+        if(n == 0) {
+            return hashed ? EMPTY_HASHED : EMPTY;
+        }
+        if(!hashed && (n <= FLAT_THRESHOLD)) {
+            return buildFlat(keys, vals, n, check);
+        }
+
+        final int[] hashes = new int[n];
+        final long[] sorted = new long[n];
+        for(int i = 0; i < n; i++) {
+            hashes[i] = Util.hasheq(keys[i]);
+            sorted[i] = trieOrder(hashes[i], i);
+        }
+        Arrays.sort(sorted);
+
+        final int[] order = new int[n];
+        for(int i = 0; i < n; i++) {
+            order[i] = (int) sorted[i];
+        }
+        final int count = removeDuplicates(keys, vals, hashes, order, 0, n, check);
+        if(!hashed && (count <= FLAT_THRESHOLD)) {
+            // first occurrences in input order, where assoc'ing the same input would have put them
+            Arrays.sort(order, 0, count);
+            final Object[] array = new Object[(2 * count)];
+            for(int i = 0; i < count; i++) {
+                array[(2 * i)] = keys[order[i]];
+                array[((2 * i) + 1)] = vals[order[i]];
+            }
+            return new LeanMap(count, new FlatNode(null, array));
+        }
+
+        return new LeanMap(count, buildNode(0, keys, vals, hashes, order, 0, count, hashed));
+    }
+
+    /*
+     * Keeps the first key and last value of duplicates like build, found by scanning the entries so far
+     */
+    static LeanMap buildFlat(Object[] keys, Object[] vals, int n, boolean check){
+        final Object[] array = new Object[(2 * n)];
+        int count = 0;
+        for(int i = 0; i < n; i++) {
+            int j = 0;
+            while((j < count) && !Util.equiv(keys[i], array[(2 * j)])) {
+                j++;
+            }
+            if(j == count) {
+                array[(2 * count)] = keys[i];
+                array[((2 * count) + 1)] = vals[i];
+                count++;
+            } else if(check) {
+                throw new IllegalArgumentException("Duplicate key: " + keys[i]);
+            } else {
+                array[((2 * j) + 1)] = vals[i];
+            }
+        }
+        return new LeanMap(count, new FlatNode(null, ((count == n) ? array : Arrays.copyOf(array, (2 * count)))));
+    }
+
+    /*
+     * Sorts by hash with the bits the root looks at most significant, then by input position
+     */
+    static long trieOrder(int hash, int i) {
+        return (((long) (Integer.reverse(hash) ^ Integer.MIN_VALUE)) << 32) | i;
+    }
+
+    /*
+     * Equal keys have equal hashes, so duplicates can only sit within a run of equal hashes
+     *
+     * @return the end of the distinct keys moved to the front of order[from, to)
+     */
+    static int removeDuplicates(Object[] keys, Object[] vals, int[] hashes, int[] order, int from, int to, boolean check) {
+        int count = from;
+        int run_start = from;
+        for(int i = from; i < to; i++) {
+            final int idx = order[i];
+            if((count == from) || (hashes[idx] != hashes[order[(count - 1)]])) {
+                run_start = count;
+            }
+            int j = run_start;
+            while((j < count) && !Util.equiv(keys[idx], keys[order[j]])) {
+                j++;
+            }
+            if(j == count) {
+                order[count++] = idx;
+            } else if(check) {
+                throw new IllegalArgumentException("Duplicate key: " + keys[idx]);
+            } else {
+                vals[order[j]] = vals[idx];
+            }
+        }
+        return count;
+    }
+
+    /*
+     * @param from the first entry in order belonging to the node, all of them share the hash bits below shift
+     */
+    static INode buildNode(int shift, Object[] keys, Object[] vals, int[] hashes, int[] order, int from, int to, boolean hashed) {
+        if(32 < shift) {
+            final Object[] array = new Object[(2 * (to - from))];
+            for(int i = from; i < to; i++) {
+                array[(2 * (i - from))] = keys[order[i]];
+                array[((2 * (i - from)) + 1)] = vals[order[i]];
+            }
+            return HashCollisionNode.create(null, hashes[order[from]], (to - from), array);
+        }
+
+        int datamap = 0;
+        int nodemap = 0;
+        for(int i = from; i < to;) {
+            final int bit = bitpos(hashes[order[i]], shift);
+            final int end = slotEnd(shift, hashes, order, i, to);
+            if((end - i) == 1) {
+                datamap |= bit;
+            } else {
+                nodemap |= bit;
+            }
+            i = end;
+        }
+
+        final Object[] array = new Object[((2 * Integer.bitCount(datamap)) + Integer.bitCount(nodemap))];
+        final int[] node_hashes = hashed ? new int[Integer.bitCount(datamap)] : null;
+        for(int i = from; i < to;) {
+            final int idx = order[i];
+            final int bit = bitpos(hashes[idx], shift);
+            final int end = slotEnd(shift, hashes, order, i, to);
+            if((datamap & bit) != 0) {
+                final int data_idx = Integer.bitCount(datamap & (bit - 1));
+                array[(2 * data_idx)] = keys[idx];
+                array[((2 * data_idx) + 1)] = vals[idx];
+                if(hashed) {
+                    node_hashes[data_idx] = hashes[idx];
+                }
+            } else {
+                array[(array.length - 1 - Integer.bitCount(nodemap & (bit - 1)))] = buildNode((shift + 5), keys, vals, hashes, order, i, end, hashed);
+            }
+            i = end;
+        }
+        return BitmapIndexedNode.create(null, datamap, nodemap, array, node_hashes);
+    }
+
+    static final int PARALLEL_BUILD_THRESHOLD = 8192;
+
+    /*
+     * Builds like create(hashed, check, init) with the work spread over pool. Entries are partitioned by
+     * their root slot, each slot's subtree is sorted and built in its own task, and the root is stitched
+     * together from the results.
+     */
+    public static LeanMap create(ForkJoinPool pool, boolean hashed, final boolean check, final Object... init){
+        final int n = entryCount(init);
+        if(n < PARALLEL_BUILD_THRESHOLD) {
+            return create(hashed, check, init);
+        }
+
+        final Object[] keys = new Object[n];
+        final Object[] vals = new Object[n];
+        final int[] hashes = new int[n];
+        pool.invoke(new HashTask(init, keys, vals, hashes, 0, n));
+
+        final int[] slot_from = new int[33];
+        for(int i = 0; i < n; i++) {
+            slot_from[(mask(hashes[i], 0) + 1)]++;
+        }
+        for(int slot = 0; slot < 32; slot++) {
+            slot_from[(slot + 1)] += slot_from[slot];
+        }
+        final int[] fill = Arrays.copyOf(slot_from, 32);
+        final long[] sorted = new long[n];
+        for(int i = 0; i < n; i++) {
+            sorted[fill[mask(hashes[i], 0)]++] = trieOrder(hashes[i], i);
+        }
+
+        final int[] order = new int[n];
+        final List<SlotTask> tasks = new ArrayList<SlotTask>(32);
+        for(int slot = 0; slot < 32; slot++) {
+            if(slot_from[slot] < slot_from[(slot + 1)]) {
+                tasks.add(new SlotTask(keys, vals, hashes, sorted, order, slot_from[slot], slot_from[(slot + 1)], hashed, check));
+            }
+        }
+        pool.invoke(new RecursiveAction() {
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+
+        int count = 0;
+        int datamap = 0;
+        int nodemap = 0;
+        for(SlotTask task : tasks) {
+            final int bit = bitpos(hashes[order[task.from]], 0);
+            if(task.node == null) {
+                datamap |= bit;
+            } else {
+                nodemap |= bit;
+            }
+            count += (task.end - task.from);
+        }
+
+        final Object[] array = new Object[((2 * Integer.bitCount(datamap)) + Integer.bitCount(nodemap))];
+        final int[] root_hashes = hashed ? new int[Integer.bitCount(datamap)] : null;
+        for(SlotTask task : tasks) {
+            final int idx = order[task.from];
+            final int bit = bitpos(hashes[idx], 0);
+            if(task.node == null) {
+                final int data_idx = Integer.bitCount(datamap & (bit - 1));
+                array[(2 * data_idx)] = keys[idx];
+                array[((2 * data_idx) + 1)] = vals[idx];
+                if(hashed) {
+                    root_hashes[data_idx] = hashes[idx];
+                }
+            } else {
+                array[(array.length - 1 - Integer.bitCount(nodemap & (bit - 1)))] = task.node;
+            }
+        }
+        return new LeanMap(count, flatten(BitmapIndexedNode.create(null, datamap, nodemap, array, root_hashes), count));
+    }
+
+    static final class HashTask extends RecursiveAction {
+        final Object[] init;
+        final Object[] keys;
+        final Object[] vals;
+        final int[] hashes;
+        final int from;
+        final int to;
+
+        HashTask(Object[] init, Object[] keys, Object[] vals, int[] hashes, int from, int to) {
+            this.init = init;
+            this.keys = keys;
+            this.vals = vals;
+            this.hashes = hashes;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if((this.to - this.from) <= PARALLEL_BUILD_THRESHOLD) {
+                for(int i = this.from; i < this.to; i++) {
+                    this.keys[i] = this.init[(2 * i)];
+                    this.vals[i] = this.init[((2 * i) + 1)];
+                    this.hashes[i] = Util.hasheq(this.keys[i]);
+                }
+            } else {
+                final int split = ((this.from + this.to) >>> 1);
+                invokeAll(new HashTask(this.init, this.keys, this.vals, this.hashes, this.from, split),
+                          new HashTask(this.init, this.keys, this.vals, this.hashes, split, this.to));
+            }
+        }
+    }
+
+    /*
+     * Sorts, deduplicates and builds the subtree of the entries sharing a root slot, at sorted[from, to)
+     */
+    static final class SlotTask extends RecursiveAction {
+        final Object[] keys;
+        final Object[] vals;
+        final int[] hashes;
+        final long[] sorted;
+        final int[] order;
+        final int from;
+        final int to;
+        final boolean hashed;
+        final boolean check;
+        int end;
+        INode node;
+
+        SlotTask(Object[] keys, Object[] vals, int[] hashes, long[] sorted, int[] order, int from, int to, boolean hashed, boolean check) {
+            this.keys = keys;
+            this.vals = vals;
+            this.hashes = hashes;
+            this.sorted = sorted;
+            this.order = order;
+            this.from = from;
+            this.to = to;
+            this.hashed = hashed;
+            this.check = check;
+        }
+
+        protected void compute() {
+            Arrays.sort(this.sorted, this.from, this.to);
+            for(int i = this.from; i < this.to; i++) {
+                this.order[i] = (int) this.sorted[i];
             }
-            ret = ret.assoc(items.first(), RT.second(items));
-            if(ret.count() != (i + 1)) {
-                throw new IllegalArgumentException("Duplicate key: " + items.first());
+            this.end = removeDuplicates(this.keys, this.vals, this.hashes, this.order, this.from, this.to, this.check);
+            if((this.end - this.from) > 1) {
+                this.node = buildNode(5, this.keys, this.vals, this.hashes, this.order, this.from, this.end, this.hashed);
             }
         }
-        return (LeanMap) ret.persistent();
+    }
+
+    private static int slotEnd(int shift, int[] hashes, int[] order, int from, int to) {
+        final int mask = mask(hashes[order[from]], shift);
+        int end = (from + 1);
+        while((end < to) && (mask(hashes[order[end]], shift) == mask)) {
+            end++;
+        }
+        return end;
     }
 
     /*
@@ -117,18 +457,64 @@ public class LeanMap extends APersistentMap implements IEditableCollection, IObj
         return create(init).withMeta(meta);
     }
 
+    final private static Object LEAF_FREE = new Object();
+
+    /*
+     * The added/removed leaf flag of persistent updates, one per thread rather than a Box per call.
+     * Holds LEAF_FREE between updates, an update nested in a key's hasheq or equiv gets a fresh Box.
+     */
+    final private static ThreadLocal<Box> LEAF_FLAG = new ThreadLocal<Box>() {
+        protected Box initialValue() {
+            return new Box(LEAF_FREE);
+        }
+    };
+
+    static Box acquireLeafFlag() {
+        final Box leaf = LEAF_FLAG.get();
+        if(leaf.val != LEAF_FREE) {
+            return new Box(null);
+        }
+        leaf.val = null;
+        return leaf;
+    }
+
+    static void releaseLeafFlag(Box leaf) {
+        leaf.val = LEAF_FREE;
+    }
+
+    /*
+     * The hash of key for a lookup or update starting at root. A FlatNode scans its entries instead,
+     * so small maps never hash the key.
+     */
+    static int hash(INode root, Object key) {
+        return (root instanceof FlatNode) ? 0 : Util.hasheq(key);
+    }
+
     public IPersistentMap assoc(Object key, Object val){
-        Box added_leaf = new Box(null);
-        INode new_root = (this.root == null ? BitmapIndexedNode.EMPTY : this.root)
-                .assoc(null, 0, Util.hasheq(key), key, val, added_leaf);
-        if(new_root == this.root) {
-            return this;
+        final INode root = (this.root == null) ? FlatNode.EMPTY : this.root;
+        if(root instanceof FlatNode) {
+            // a local flag: once the call is inlined it never leaves the stack, which beats the thread local lookup
+            final Box added = new Box(null);
+            final INode new_root = ((FlatNode) root).assoc(null, 0, 0, key, val, added);
+            if(new_root == this.root) {
+                return this;
+            }
+            return new LeanMap(meta(), (added.val == null) ? this.count : (this.count + 1), new_root);
+        }
+        final Box added_leaf = acquireLeafFlag();
+        try {
+            INode new_root = root.assoc(null, 0, hash(root, key), key, val, added_leaf);
+            if(new_root == this.root) {
+                return this;
+            }
+            return new LeanMap(meta(), added_leaf.val == null ? this.count : this.count + 1, new_root);
+        } finally {
+            releaseLeafFlag(added_leaf);
         }
-        return new LeanMap(meta(), added_leaf.val == null ? this.count : this.count + 1, new_root);
     }
 
     public boolean containsKey(Object key){
-        return (root != null) && root.find(0, Util.hasheq(key), key, NOT_FOUND) != NOT_FOUND;
+        return (root != null) && root.find(0, hash(root, key), key, NOT_FOUND) != NOT_FOUND;
     }
 
     public IPersistentMap assocEx(Object key, Object val) {
@@ -138,15 +524,67 @@ public class LeanMap extends APersistentMap implements IEditableCollection, IObj
     }
 
     public Object valAt(Object key, Object notFound){
-        return root != null ? root.find(0, Util.hasheq(key), key, notFound) : notFound;
+        return root != null ? root.find(0, hash(root, key), key, notFound) : notFound;
     }
 
     public Object valAt(Object key){
         return valAt(key, null);
     }
 
+    /*
+     * Fills vals with the value of each of keys, or not_found. The keys are hashed up front and descend
+     * the trie together one level at a time, so the node loads of different keys overlap instead of
+     * each lookup waiting on its own chain of misses.
+     */
+    public void valAtAll(Object[] keys, Object[] vals, Object not_found){
+        final int n = keys.length;
+        if(root == null) {
+            Arrays.fill(vals, 0, n, not_found);
+            return;
+        }
+        final int[] hashes = new int[n];
+        final int[] pending = new int[n];
+        final Object[] cursors = new Object[n];
+        for(int i = 0; i < n; i++) {
+            hashes[i] = hash(root, keys[i]);
+            pending[i] = i;
+            cursors[i] = root;
+        }
+        int active = n;
+        for(int shift = 0; active > 0; shift += 5) {
+            int still = 0;
+            for(int j = 0; j < active; j++) {
+                final int pos = pending[j];
+                final Object cursor = cursors[pos];
+                if(cursor instanceof BitmapIndexedNode) {
+                    final BitmapIndexedNode node = (BitmapIndexedNode) cursor;
+                    final int bit = bitpos(hashes[pos], shift);
+                    if((node.datamap & bit) != 0) {
+                        final int idx = node.bitmapNodeIndex(node.datamap, bit);
+                        final boolean same_hash = (node.hashes == null) || (node.hashes[idx] == hashes[pos]);
+                        vals[pos] = (same_hash && Util.equals(node.array[(2 * idx)], keys[pos])) ? node.array[((2 * idx) + 1)] : not_found;
+                    } else if((node.nodemap & bit) != 0) {
+                        cursors[pos] = node.array[node.nodeAt(bit)];
+                        pending[still++] = pos;
+                    } else {
+                        vals[pos] = not_found;
+                    }
+                } else {
+                    vals[pos] = ((INode) cursor).find(shift, hashes[pos], keys[pos], not_found);
+                }
+            }
+            active = still;
+        }
+    }
+
+    public Object[] valAtAll(Object[] keys){
+        final Object[] vals = new Object[keys.length];
+        valAtAll(keys, vals, null);
+        return vals;
+    }
+
     public IMapEntry entryAt(Object key){
-        return (root != null) ? root.find(0, Util.hasheq(key), key) : null;
+        return (root != null) ? root.find(0, hash(root, key), key) : null;
     }
 
     static final Iterator EMPTY_ITER = new Iterator(){
@@ -163,10 +601,6 @@ public class LeanMap extends APersistentMap implements IEditableCollection, IObj
         }
     };
 
-    private Iterator iterator(final IFn f) {
-        return ((root == null) || (this.count == 0)) ? EMPTY_ITER : new NodeIter(root, f);
-    }
-
     static final IFn MAKE_ENTRY = new AFn() {
         public Object invoke(Object key, Object val) {
             return MapEntry.create(key, val);
@@ -186,665 +620,2509 @@ public class LeanMap extends APersistentMap implements IEditableCollection, IObj
     };
 
     public Iterator iterator(){
-        return iterator(MAKE_ENTRY);
+        return ((root == null) || (this.count == 0)) ? EMPTY_ITER : new EntryIter(root);
     }
 
     public Iterator keyIterator(){
-        return iterator(MAKE_KEY);
+        return ((root == null) || (this.count == 0)) ? EMPTY_ITER : new KeyIter(root);
     }
 
     public Iterator valIterator(){
-        return iterator(MAKE_VAL);
+        return ((root == null) || (this.count == 0)) ? EMPTY_ITER : new ValIter(root);
     }
 
-    public Object fold(long n, final IFn combinef, final IFn reducef,
-                       IFn fjinvoke, final IFn fjtask, final IFn fjfork, final IFn fjjoin){
-        //we are ignoring n for now
-        Callable top = new Callable(){
-            public Object call() throws Exception{
-                return root == null ? combinef.invoke() : combinef.invoke(combinef.invoke(), root.fold(combinef, reducef, fjtask, fjfork, fjjoin));
-            }
-        };
-        return fjinvoke.invoke(top);
+    /*
+     * A cursor over the entries, for loops that want keys and vals without an entry or an iterator's dispatch
+     */
+    public Cursor cursor(){
+        return new Cursor(root);
     }
 
-    public IPersistentMap without(Object key){
-        if(this.root == null) {
-            return this;
-        }
-        INode new_root = this.root.without(null, 0, Util.hasheq(key), key, new Box(null));
-        if(new_root == this.root) {
-            return this;
+    private Spliterator<Object> spliterator(IFn f, int characteristics) {
+        if ((root == null) || (this.count == 0)) {
+            return Spliterators.emptySpliterator();
         }
-        return new LeanMap(meta(), (this.count - 1), new_root);
+        return new NodeSpliterator(root, this.count, true, f, characteristics);
     }
 
-    public ISeq seq() { return  root != null ? root.nodeSeq() : null; }
+    /*
+     * Entries split along the trie for parallel streams, see NodeSpliterator
+     */
+    public Spliterator<Object> spliterator() {
+        return spliterator(MAKE_ENTRY, (Spliterator.DISTINCT | Spliterator.IMMUTABLE | Spliterator.NONNULL));
+    }
 
-    private static NodeSeq createINodeSeq(Object[] array, int lvl, INode[] nodes, int[] cursor_lengths, int data_idx, int data_len) {
-        if (data_idx < data_len) {
-            return new NodeSeq(null, array, lvl, nodes, cursor_lengths, (data_idx + 1), data_len);
-        } else {
-            while(lvl >= 0) {
-                int node_idx = cursor_lengths[lvl];
-                if (node_idx == 0) {
-                    lvl = lvl - 1;
-                } else {
-                    final int[] cursors = cursor_lengths.clone();
-                    cursors[lvl] = (node_idx - 1);
+    // the views of APersistentMap, with spliterators of the trie for stream() and parallelStream()
 
-                    INode node = nodes[lvl].getNode(node_idx);
-                    boolean has_nodes = node.hasNodes();
-                    int new_lvl = has_nodes ? (lvl + 1) : lvl;
+    public Set entrySet() {
+        final Set entries = super.entrySet();
+        return new AbstractSet() {
+            public Iterator iterator() {
+                return entries.iterator();
+            }
 
-                    final INode[] new_nodes = nodes.clone();
-                    if (has_nodes) {
-                        new_nodes[new_lvl] = node;
-                        cursors[new_lvl] = node.nodeArity();
-                    }
+            public Spliterator spliterator() {
+                return LeanMap.this.spliterator();
+            }
 
-                    if (node.hasData()){
-                        return new NodeSeq(null, node.getArray(), new_lvl, new_nodes, cursors, 0, (node.dataArity() - 1));
-                    }
+            public int size() {
+                return count;
+            }
 
-                    lvl = lvl + 1;
-                }
+            public int hashCode() {
+                return entries.hashCode();
             }
-            return null;
-        }
-    }
 
-    public Object kvreduce(IFn f, Object init) {
-        if(RT.isReduced(init)) {
-            return ((IDeref)init).deref();
-        }
-        if(root != null){
-            init = root.kvreduce(f,init);
-            if(RT.isReduced(init)) {
-                return ((IDeref) init).deref();
-            } else {
-                return init;
+            public boolean contains(Object o) {
+                return entries.contains(o);
             }
-        }
-        return init;
+        };
     }
 
-    static final class NodeSeq extends ASeq {
-        final Object[] array;
-        final INode[] nodes;
-        final int[] cursor_lengths;
-        final int lvl;
-        final int data_idx;
-        final int data_len;
-
-        NodeSeq(IPersistentMap meta, Object[] array, int lvl, INode[] nodes, int[] cursor_lengths, int data_idx, int data_len) {
-            super(meta);
-            this.array = array;
-            this.nodes = nodes;
-            this.lvl = lvl;
-            this.cursor_lengths = cursor_lengths;
-            this.data_idx = data_idx;
-            this.data_len = data_len;
-        }
-
-        public Obj withMeta(IPersistentMap meta) {
-            return new NodeSeq(meta, this.array, this.lvl, this.nodes, this.cursor_lengths, this.data_idx, this.data_len);
-        }
-
-        public Object first() {
-            return MapEntry.create(array[(this.data_idx * 2)], array[((this.data_idx * 2) + 1)]);
-        }
+    public Set keySet() {
+        final Set keys = super.keySet();
+        return new AbstractSet() {
+            public Iterator iterator() {
+                return keyIterator();
+            }
 
-        public ISeq next() {
-            return createINodeSeq(this.array, this.lvl, this.nodes, this.cursor_lengths, this.data_idx, this.data_len);
-        }
+            public Spliterator spliterator() {
+                return LeanMap.this.spliterator(MAKE_KEY, (Spliterator.DISTINCT | Spliterator.IMMUTABLE));
+            }
 
-        public static Object kvreduce(Object[] array, int key_values, int nodes, IFn f, Object init) {
-            int key_value_len = (2 * key_values);
-            int node_len = key_value_len + nodes;
+            public int size() {
+                return count;
+            }
 
-            int i = 0;
-            while (i < node_len) {
-                if (i < key_value_len) {
-                    init = f.invoke(init, array[i], array[(i + 1)]);
-                    i = i + 2;
-                } else {
-                    init = ((INode) array[i]).kvreduce(f, init);
-                    i = i + 1;
-                }
-                if (RT.isReduced(init)) {
-                    return init;
-                }
+            public boolean contains(Object o) {
+                return keys.contains(o);
             }
-            return init;
-        }
+        };
     }
 
-    static final class NodeIter implements Iterator {
-        private static final Object NULL = new Object();
-        private Object next_entry = NULL;
-
-        final INode[] nodes = new INode[7];
-        final int[] cursor_lengths = new int[7];
-        final IFn f;
+    public Collection values() {
+        return new AbstractCollection() {
+            public Iterator iterator() {
+                return valIterator();
+            }
 
-        Object[] array;
-        int lvl = 0;
-        int data_idx;
-        int data_len;
+            public Spliterator spliterator() {
+                return LeanMap.this.spliterator(MAKE_VAL, Spliterator.IMMUTABLE);
+            }
 
-        NodeIter(INode node, IFn f) {
-            this.f = f;
+            public int size() {
+                return count;
+            }
+        };
+    }
 
-            this.array = node.getArray();
-            this.lvl = 0;
-            this.data_idx = 0;
+    public Object fold(final long n, final IFn combinef, final IFn reducef,
+                       IFn fjinvoke, final IFn fjtask, final IFn fjfork, final IFn fjjoin){
+        final long size = this.count;
+        // an IFn rather than a bare Callable, fjinvoke calls it directly when already inside a fork/join pool
+        IFn top = new AFn(){
+            public Object invoke(){
+                return root == null ? combinef.invoke() : combinef.invoke(combinef.invoke(), root.fold(n, size, combinef, reducef, fjtask, fjfork, fjjoin));
+            }
+        };
+        return fjinvoke.invoke(top);
+    }
 
-            this.data_len = node.dataArity();
-            this.nodes[0] = node;
-            this.cursor_lengths[0] = node.nodeArity();
+    static Object foldTasks(List<Callable> tasks, final IFn combinef, final IFn fjtask, final IFn fjfork, final IFn fjjoin){
+        if(tasks.isEmpty()) {
+            return combinef.invoke();
+        }
 
-            if (this.data_len == 0) {
-                advance();
-            } else {
-                this.data_len = this.data_len - 1;
+        if(tasks.size() == 1) {
+            try {
+                return tasks.get(0).call();
+            } catch(Exception e) {
+                throw Util.sneakyThrow(e);
             }
-
-            this.next_entry = this.f.invoke(array[(this.data_idx * 2)], array[((this.data_idx * 2) + 1)]);
         }
 
-        private boolean advance() {
-            if (this.data_idx < this.data_len) {
-                this.data_idx = this.data_idx + 1;
-                this.next_entry = this.f.invoke(array[(this.data_idx * 2)], array[((this.data_idx * 2) + 1)]);
+        List<Callable> t1 = tasks.subList(0, (tasks.size() / 2));
+        final List<Callable> t2 = tasks.subList((tasks.size() / 2), tasks.size());
 
-                return true;
-            } else {
-                while (this.lvl >= 0) {
-                    int node_idx = this.cursor_lengths[this.lvl];
-                    if (node_idx == 0) {
-                        this.lvl = this.lvl - 1;
-                    } else {
-                        this.cursor_lengths[this.lvl] = (node_idx - 1);
+        Object forked = fjfork.invoke(fjtask.invoke(new Callable() {
+            public Object call() throws Exception{
+                return foldTasks(t2, combinef, fjtask, fjfork, fjjoin);
+            }
+        }));
 
-                        INode node = this.nodes[this.lvl].getNode(node_idx);
-                        boolean has_nodes = node.hasNodes();
-                        int new_lvl = has_nodes ? (this.lvl + 1) : this.lvl;
+        return combinef.invoke(foldTasks(t1, combinef, fjtask, fjfork, fjjoin), fjjoin.invoke(forked));
+    }
 
-                        if (has_nodes) {
-                            this.nodes[new_lvl] = node;
-                            this.cursor_lengths[new_lvl] = node.nodeArity();
-                        }
+    static Object foldInline(Object[] array, int key_values, int nodes, IFn combinef, IFn reducef) {
+        Object ret = NodeSeq.kvreduce(array, key_values, nodes, reducef, combinef.invoke());
+        return RT.isReduced(ret) ? ((IDeref) ret).deref() : ret;
+    }
 
-                        if (node.hasData()) {
-                            this.array = node.getArray();
-                            this.lvl = new_lvl;
-                            this.data_idx = 0;
-                            this.data_len = (node.dataArity() - 1);
-                            this.next_entry = this.f.invoke(array[(this.data_idx * 2)], array[((this.data_idx * 2) + 1)]);
+    public IPersistentMap without(Object key){
+        if(this.root == null) {
+            return this;
+        }
+        if(this.root instanceof FlatNode) {
+            // see assoc, no other node can come out of a flat root losing an entry
+            final INode new_root = ((FlatNode) this.root).without(null, 0, 0, key, new Box(null));
+            return (new_root == this.root) ? this : new LeanMap(meta(), (this.count - 1), new_root);
+        }
+        final Box removed_leaf = acquireLeafFlag();
+        try {
+            // without no edit token every change is a removal, the flag is only written
+            INode new_root = this.root.without(null, 0, hash(this.root, key), key, removed_leaf);
+            if(new_root == this.root) {
+                return this;
+            }
+            return new LeanMap(meta(), (this.count - 1), flatten(new_root, (this.count - 1)));
+        } finally {
+            releaseLeafFlag(removed_leaf);
+        }
+    }
 
-                            return true;
-                        }
+    /*
+     * Assocs every keys[i] to vals[i] under one edit token, so each node on the affected paths is copied
+     * once no matter how many of the keys go through it, instead of once per key.
+     */
+    public LeanMap assocAll(Object[] keys, Object[] vals){
+        if(keys.length == 0) {
+            return this;
+        }
+        final AtomicReference<Object> edit = newEdit();
+        final Box added_leaf = new Box(null);
+        INode new_root = (this.root == null) ? FlatNode.EMPTY : this.root;
+        int new_count = this.count;
+        for(int i = 0; i < keys.length; i++) {
+            added_leaf.val = null;
+            new_root = new_root.assoc(edit, 0, hash(new_root, keys[i]), keys[i], vals[i], added_leaf);
+            if(added_leaf.val != null) {
+                new_count++;
+            }
+        }
+        edit.set(null);
 
-                        lvl = lvl + 1;
-                    }
-                }
+        if(new_root == this.root) {
+            return this;
+        }
+        return new LeanMap(meta(), new_count, new_root);
+    }
 
-                return false;
+    /*
+     * Removes all of keys under one edit token, compacting like without does
+     */
+    public LeanMap withoutAll(Object[] keys){
+        if((this.root == null) || (keys.length == 0)) {
+            return this;
+        }
+        final AtomicReference<Object> edit = newEdit();
+        final Box removed_leaf = new Box(null);
+        INode new_root = this.root;
+        int new_count = this.count;
+        for(int i = 0; i < keys.length; i++) {
+            removed_leaf.val = null;
+            new_root = new_root.without(edit, 0, hash(new_root, keys[i]), keys[i], removed_leaf);
+            if(removed_leaf.val != null) {
+                new_count--;
             }
         }
+        edit.set(null);
 
-        public boolean hasNext() {
-            if (this.next_entry != NULL) {
-                return true;
-            }
+        if(new_root == this.root) {
+            return this;
+        }
+        return new LeanMap(meta(), new_count, flatten(new_root, new_count));
+    }
 
-            return advance();
+    /*
+     * Merges other into this map like merge-with, walking both tries together by bitmap.
+     * Subtrees only one side has are reused as is, so the work is proportional to the overlap, and subtrees both
+     * sides share are not visited at all. A flat root, at most eight entries, is merged entry by entry.
+     *
+     * @param resolve (resolve this_val other_val) for keys in both maps, other's value wins when null
+     */
+    public LeanMap merge(LeanMap other, IFn resolve){
+        if(other.count == 0) {
+            return this;
+        }
+        if((this.count == 0) && (isHashed() == other.isHashed())) {
+            return new LeanMap(meta(), other.count, other.root);
         }
 
-        public Object next(){
-            Object ret = this.next_entry;
-            if(ret != NULL)
-            {
-                this.next_entry = NULL;
-                return ret;
-            }
-            else if(advance()) {
-                return next();
-            }
-            throw new NoSuchElementException();
+        final Merge merge = new Merge(resolve);
+        final INode new_root;
+        final int new_count;
+        if((this.root instanceof FlatNode) && !(other.root instanceof FlatNode) && !other.isHashed()) {
+            // the few entries of this go into other, rather than all of other into this, each one found there taken off
+            new_root = mergeEntries(0, other.root, this.root, false, merge);
+            new_count = (this.count + other.count + merge.added);
+        } else {
+            new_root = (isHashed() == other.isHashed())
+                    ? mergeNodes(0, this.root, other.root, merge)
+                    : mergeEntries(0, ((this.root == null) ? FlatNode.EMPTY : this.root), other.root, true, merge);
+            new_count = (this.count + merge.added);
         }
+        merge.edit.set(null);
 
-        public void remove(){
-            throw new UnsupportedOperationException();
+        if(new_root == this.root) {
+            return this;
         }
+        return new LeanMap(meta(), new_count, new_root);
     }
 
-    public IPersistentMap meta(){
-        return _meta;
-    }
+    static final class Merge {
+        final AtomicReference<Object> edit = newEdit();
+        final Box leaf = new Box(null);
+        final IFn resolve;
+        // entries the merged node has beyond those of the node merged into
+        int added;
 
-    public int count(){
-        return count;
+        Merge(IFn resolve) {
+            this.resolve = resolve;
+        }
+
+        Object resolve(Object current_val, Object val) {
+            return (this.resolve == null) ? val : this.resolve.invoke(current_val, val);
+        }
     }
 
-    public LeanMap withMeta(IPersistentMap meta){
-        return new LeanMap(meta, count, root);
+    static int size(INode node) {
+        int size = node.dataArity();
+        for(int i = 1; i <= node.nodeArity(); i++) {
+            size += size(node.getNode(i));
+        }
+        return size;
     }
 
-    public IPersistentCollection empty(){
-        return EMPTY.withMeta(meta());
+    // a LeafNode has the datamap of a BitmapIndexedNode and no sub-nodes, so the bitmap walk takes it as one
+    private static BitmapIndexedNode asBitmapNode(INode node) {
+        if(node instanceof LeafNode) {
+            return new BitmapIndexedNode(null, ((LeafNode) node).datamap, 0, node.getArray());
+        }
+        return (BitmapIndexedNode) node;
     }
 
-    static int mask(int hash, int shift) {return (hash >>> shift) & 0x01f; }
+    private static INode mergeNodes(int shift, INode left, INode right, Merge merge) {
+        if((left == right) && (merge.resolve == null)) {
+            return left;
+        }
+        if((left instanceof FlatNode) || (left instanceof HashCollisionNode) || (right instanceof FlatNode) || (right instanceof HashCollisionNode)) {
+            return mergeEntries(shift, left, right, true, merge);
+        }
 
-    private static int bitpos(int hash, int shift){
-        return 1 << mask(hash, shift);
+        final BitmapIndexedNode a = asBitmapNode(left);
+        final BitmapIndexedNode b = asBitmapNode(right);
+        final boolean hashed = (a.hashes != null);
+
+        // slots where both sides hold the same key stay inline, every other slot held by both becomes a node
+        int same_keys = 0;
+        for(int both = (a.datamap & b.datamap); both != 0; both &= (both - 1)) {
+            final int bit = Integer.lowestOneBit(both);
+            final int a_idx = a.bitmapNodeIndex(a.datamap, bit);
+            final int b_idx = b.bitmapNodeIndex(b.datamap, bit);
+            if((!hashed || (a.hashes[a_idx] == b.hashes[b_idx])) && Util.equiv(a.array[(2 * a_idx)], b.array[(2 * b_idx)])) {
+                same_keys |= bit;
+            }
+        }
+
+        final int a_used = (a.datamap | a.nodemap);
+        final int b_used = (b.datamap | b.nodemap);
+        final int datamap = (a.datamap & ~b_used) | (b.datamap & ~a_used) | same_keys;
+        final int nodemap = (a_used | b_used) & ~datamap;
+
+        final Object[] array = new Object[((2 * Integer.bitCount(datamap)) + Integer.bitCount(nodemap))];
+        final int[] hashes = hashed ? new int[Integer.bitCount(datamap)] : null;
+        boolean same_as_a = (datamap == a.datamap) && (nodemap == a.nodemap);
+
+        int data_idx = 0;
+        int node_idx = (array.length - 1);
+        for(int used = (a_used | b_used); used != 0; used &= (used - 1)) {
+            final int bit = Integer.lowestOneBit(used);
+            final boolean a_data = ((a.datamap & bit) != 0);
+            final boolean b_data = ((b.datamap & bit) != 0);
+            final int a_idx = a_data ? a.bitmapNodeIndex(a.datamap, bit) : -1;
+            final int b_idx = b_data ? b.bitmapNodeIndex(b.datamap, bit) : -1;
+
+            if((datamap & bit) != 0) {
+                final BitmapIndexedNode from = ((a_used & bit) != 0) ? a : b;
+                final int idx = (from == a) ? a_idx : b_idx;
+                Object val = from.array[((2 * idx) + 1)];
+                if((same_keys & bit) != 0) {
+                    val = merge.resolve(val, b.array[((2 * b_idx) + 1)]);
+                } else if(from == b) {
+                    merge.added++;
+                }
+
+                array[(2 * data_idx)] = from.array[(2 * idx)];
+                array[((2 * data_idx) + 1)] = val;
+                if(hashed) {
+                    hashes[data_idx] = from.hashes[idx];
+                }
+                same_as_a = same_as_a && (from == a) && (val == a.array[((2 * idx) + 1)]);
+                data_idx++;
+            } else {
+                final int sub_shift = (shift + 5);
+                INode node;
+                if(a_data && b_data) {
+                    node = a.mergeTwoKeyValuePairs(merge.edit, sub_shift, a.keyHash(a_idx), a.array[(2 * a_idx)], a.array[((2 * a_idx) + 1)],
+                                                   b.keyHash(b_idx), b.array[(2 * b_idx)], b.array[((2 * b_idx) + 1)]);
+                    merge.added++;
+                } else if(a_data) {
+                    // all of b's sub-node is new but a's entry, when it is in there too
+                    node = (INode) b.array[b.nodeAt(bit)];
+                    merge.added += size(node);
+                    node = mergeEntry(sub_shift, node, a.keyHash(a_idx), a.array[(2 * a_idx)], a.array[((2 * a_idx) + 1)], false, merge);
+                } else if(b_data) {
+                    node = (INode) a.array[a.nodeAt(bit)];
+                    node = mergeEntry(sub_shift, node, b.keyHash(b_idx), b.array[(2 * b_idx)], b.array[((2 * b_idx) + 1)], true, merge);
+                } else if((a.nodemap & bit) == 0) {
+                    node = (INode) b.array[b.nodeAt(bit)];
+                    merge.added += size(node);
+                } else if((b.nodemap & bit) == 0) {
+                    node = (INode) a.array[a.nodeAt(bit)];
+                } else {
+                    node = mergeNodes(sub_shift, (INode) a.array[a.nodeAt(bit)], (INode) b.array[b.nodeAt(bit)], merge);
+                }
+
+                array[node_idx] = node;
+                same_as_a = same_as_a && ((a.nodemap & bit) != 0) && (node == a.array[a.nodeAt(bit)]);
+                node_idx--;
+            }
+        }
+
+        return same_as_a ? left : BitmapIndexedNode.create(merge.edit, datamap, nodemap, array, hashes);
     }
 
-    private static boolean isAllowedToEdit(AtomicReference<Thread> x, AtomicReference<Thread> y) {
-        return x != null && y != null && (x == y || x.get() == y.get());
+    /*
+     * Counts the entry in merge.added when it comes from the node merged in and is new, and takes it back out
+     * when it comes from the node merged into and is already in the other one.
+     *
+     * @param wins whether the entry's value takes precedence over the one already in the node
+     */
+    private static INode mergeEntry(int shift, INode node, int hash, Object key, Object val, boolean wins, Merge merge) {
+        final Object current_val = node.find(shift, hash, key, NOT_FOUND);
+        if(current_val == NOT_FOUND) {
+            if(wins) {
+                merge.added++;
+            }
+            return node.assoc(merge.edit, shift, hash, key, val, merge.leaf);
+        }
+        if(!wins) {
+            merge.added--;
+        }
+        final Object new_val = wins ? merge.resolve(current_val, val) : merge.resolve(val, current_val);
+        return (new_val == current_val) ? node : node.assoc(merge.edit, shift, hash, key, new_val, merge.leaf);
     }
 
-    private static Object[] removePair(Object[] array, int i) {
-        Object[] newArray = new Object[array.length - 2];
-        System.arraycopy(array, 0, newArray, 0, 2*i);
-        System.arraycopy(array, 2*(i+1), newArray, 2*i, newArray.length - 2*i);
-        return newArray;
+    /*
+     * @param wins whether right's values are the ones merged over left's
+     */
+    private static INode mergeEntries(final int shift, INode left, INode right, final boolean wins, final Merge merge) {
+        return (INode) right.kvreduce(new AFn() {
+            public Object invoke(Object node, Object key, Object val) {
+                return mergeEntry(shift, (INode) node, Util.hasheq(key), key, val, wins, merge);
+            }
+        }, left);
     }
 
-    public TransientLeanMap asTransient() {
-        return new TransientLeanMap(this);
+    final static Keyword ADDED = Keyword.intern(null, "added");
+    final static Keyword REMOVED = Keyword.intern(null, "removed");
+    final static Keyword CHANGED = Keyword.intern(null, "changed");
+
+    /*
+     * Reduces over what changed from this map to other with (f acc kind key old_val new_val), kind being
+     * :added, :removed or :changed. Compaction on delete gives equal contents the same shape, so subtrees
+     * both versions share are skipped and the work is proportional to the size of the change.
+     */
+    public Object diff(LeanMap other, IFn f, Object init){
+        if(RT.isReduced(init)) {
+            return ((IDeref) init).deref();
+        }
+        Object ret = init;
+        if(this.root != other.root) {
+            if(this.root == null) {
+                ret = diffAll(ADDED, other.root, f, init);
+            } else if(other.root == null) {
+                ret = diffAll(REMOVED, this.root, f, init);
+            } else {
+                ret = diffNodes(0, this.root, other.root, f, init);
+            }
+        }
+        return RT.isReduced(ret) ? ((IDeref) ret).deref() : ret;
     }
 
-    static final class TransientLeanMap extends AFn implements ITransientMap {
-        final AtomicReference<Thread> edit;
-        volatile INode root;
-        volatile int count;
-        final Box leafFlag = new Box(null);
+    private static Object diffNodes(int shift, INode left, INode right, IFn f, Object acc) {
+        if(left == right) {
+            return acc;
+        }
+        if(!(left instanceof BitmapIndexedNode) || !(right instanceof BitmapIndexedNode)) {
+            return diffEntries(shift, left, right, f, acc);
+        }
+
+        final BitmapIndexedNode a = (BitmapIndexedNode) left;
+        final BitmapIndexedNode b = (BitmapIndexedNode) right;
+        final int sub_shift = (shift + 5);
+
+        for(int used = (a.datamap | a.nodemap | b.datamap | b.nodemap); used != 0; used &= (used - 1)) {
+            final int bit = Integer.lowestOneBit(used);
+            final boolean a_data = ((a.datamap & bit) != 0);
+            final boolean b_data = ((b.datamap & bit) != 0);
+            final boolean a_node = ((a.nodemap & bit) != 0);
+            final boolean b_node = ((b.nodemap & bit) != 0);
+
+            if(a_data && b_data) {
+                final int a_idx = a.bitmapNodeIndex(a.datamap, bit);
+                final int b_idx = b.bitmapNodeIndex(b.datamap, bit);
+                final Object a_key = a.array[(2 * a_idx)];
+                final Object b_key = b.array[(2 * b_idx)];
+                final boolean same_hash = (a.hashes == null) || (b.hashes == null) || (a.hashes[a_idx] == b.hashes[b_idx]);
+                if(same_hash && Util.equiv(a_key, b_key)) {
+                    acc = diffVal(a_key, a.array[((2 * a_idx) + 1)], b.array[((2 * b_idx) + 1)], f, acc);
+                } else {
+                    acc = f.invoke(acc, REMOVED, a_key, a.array[((2 * a_idx) + 1)], null);
+                    if(!RT.isReduced(acc)) {
+                        acc = f.invoke(acc, ADDED, b_key, null, b.array[((2 * b_idx) + 1)]);
+                    }
+                }
+            } else if(a_data && b_node) {
+                final int a_idx = a.bitmapNodeIndex(a.datamap, bit);
+                acc = diffEntry(sub_shift, a.keyHash(a_idx), a.array[(2 * a_idx)], a.array[((2 * a_idx) + 1)],
+                                (INode) b.array[b.nodeAt(bit)], false, f, acc);
+            } else if(a_node && b_data) {
+                final int b_idx = b.bitmapNodeIndex(b.datamap, bit);
+                acc = diffEntry(sub_shift, b.keyHash(b_idx), b.array[(2 * b_idx)], b.array[((2 * b_idx) + 1)],
+                                (INode) a.array[a.nodeAt(bit)], true, f, acc);
+            } else if(a_node && b_node) {
+                acc = diffNodes(sub_shift, (INode) a.array[a.nodeAt(bit)], (INode) b.array[b.nodeAt(bit)], f, acc);
+            } else if(a_data) {
+                final int a_idx = a.bitmapNodeIndex(a.datamap, bit);
+                acc = f.invoke(acc, REMOVED, a.array[(2 * a_idx)], a.array[((2 * a_idx) + 1)], null);
+            } else if(b_data) {
+                final int b_idx = b.bitmapNodeIndex(b.datamap, bit);
+                acc = f.invoke(acc, ADDED, b.array[(2 * b_idx)], null, b.array[((2 * b_idx) + 1)]);
+            } else if(a_node) {
+                acc = diffAll(REMOVED, (INode) a.array[a.nodeAt(bit)], f, acc);
+            } else {
+                acc = diffAll(ADDED, (INode) b.array[b.nodeAt(bit)], f, acc);
+            }
 
-        TransientLeanMap(LeanMap m) {
-            this(new AtomicReference<Thread>(Thread.currentThread()), m.root, m.count);
+            if(RT.isReduced(acc)) {
+                return acc;
+            }
         }
+        return acc;
+    }
 
-        TransientLeanMap(AtomicReference<Thread> edit, INode root, int count) {
-            this.edit = edit;
-            this.root = root;
-            this.count = count;
+    private static Object diffVal(Object key, Object old_val, Object new_val, IFn f, Object acc) {
+        if((old_val == new_val) || Util.equiv(old_val, new_val)) {
+            return acc;
         }
-        //ATransientMap Inlining
-        public ITransientMap conj(Object o) {
-            ensureEditable();
-            if(o instanceof Map.Entry)
-            {
-                Map.Entry e = (Map.Entry) o;
+        return f.invoke(acc, CHANGED, key, old_val, new_val);
+    }
 
-                return assoc(e.getKey(), e.getValue());
-            }
-            else if(o instanceof IPersistentVector)
-            {
-                IPersistentVector v = (IPersistentVector) o;
-                if(v.count() != 2)
-                    throw new IllegalArgumentException("Vector arg to map conj must be a pair");
-                return assoc(v.nth(0), v.nth(1));
+    /*
+     * Diffs a single inline entry against the node sitting in the same slot on the other side
+     *
+     * @param added whether the entry is on the new side of the diff
+     */
+    private static Object diffEntry(int shift, int hash, final Object key, Object val, INode node, final boolean added, final IFn f, Object acc) {
+        final Object other_val = node.find(shift, hash, key, NOT_FOUND);
+        if(other_val == NOT_FOUND) {
+            acc = added ? f.invoke(acc, ADDED, key, null, val) : f.invoke(acc, REMOVED, key, val, null);
+        } else {
+            acc = added ? diffVal(key, other_val, val, f, acc) : diffVal(key, val, other_val, f, acc);
+        }
+        if(RT.isReduced(acc)) {
+            return acc;
+        }
+
+        final Keyword kind = added ? REMOVED : ADDED;
+        return node.kvreduce(new AFn() {
+            public Object invoke(Object acc, Object node_key, Object node_val) {
+                if(Util.equiv(key, node_key)) {
+                    return acc;
+                }
+                return added ? f.invoke(acc, kind, node_key, node_val, null) : f.invoke(acc, kind, node_key, null, node_val);
             }
+        }, acc);
+    }
 
-            ITransientMap ret = this;
-            for(ISeq es = RT.seq(o); es != null; es = es.next())
-            {
-                Map.Entry e = (Map.Entry) es.first();
-                ret = ret.assoc(e.getKey(), e.getValue());
+    private static Object diffEntries(final int shift, INode left, final INode right, final IFn f, Object acc) {
+        acc = left.kvreduce(new AFn() {
+            public Object invoke(Object acc, Object key, Object val) {
+                final Object other_val = right.find(shift, Util.hasheq(key), key, NOT_FOUND);
+                if(other_val == NOT_FOUND) {
+                    return f.invoke(acc, REMOVED, key, val, null);
+                }
+                return diffVal(key, val, other_val, f, acc);
             }
-            return ret;
+        }, acc);
+        if(RT.isReduced(acc)) {
+            return acc;
         }
 
-        public final Object invoke(Object arg1) {
-            return valAt(arg1);
-        }
+        final INode before = left;
+        return right.kvreduce(new AFn() {
+            public Object invoke(Object acc, Object key, Object val) {
+                if(before.find(shift, Util.hasheq(key), key, NOT_FOUND) == NOT_FOUND) {
+                    return f.invoke(acc, ADDED, key, null, val);
+                }
+                return acc;
+            }
+        }, acc);
+    }
 
-        public final Object invoke(Object arg1, Object notFound) {
-            return valAt(arg1, notFound);
+    private static Object diffAll(final Keyword kind, INode node, final IFn f, Object acc) {
+        return node.kvreduce(new AFn() {
+            public Object invoke(Object acc, Object key, Object val) {
+                return (kind == ADDED) ? f.invoke(acc, kind, key, null, val) : f.invoke(acc, kind, key, val, null);
+            }
+        }, acc);
+    }
+
+    /*
+     * The shape of this map's trie, for sizing heaps and spotting bad hash distributions
+     */
+    public Stats stats(){
+        return stats(null);
+    }
+
+    /*
+     * @param other a version to count shared bytes against, null for none
+     */
+    public Stats stats(LeanMap other){
+        final Stats stats = new Stats(this.count);
+        Set<INode> shared = null;
+        if((other != null) && (other.root != null)) {
+            shared = Collections.newSetFromMap(new IdentityHashMap<INode, Boolean>());
+            collectNodes(other.root, shared);
+        }
+        if(this.root != null) {
+            stats.visit(this.root, 0, shared, false);
         }
+        return stats;
+    }
 
-        public final Object valAt(Object key) {
-            return valAt(key, null);
+    private static void collectNodes(INode node, Set<INode> nodes) {
+        nodes.add(node);
+        for(int i = 1; i <= node.nodeArity(); i++) {
+            collectNodes(node.getNode(i), nodes);
         }
+    }
 
-        public final ITransientMap assoc(Object key, Object val) {
-            ensureEditable();
-            return doAssoc(key, val);
+    /*
+     * Node counts per depth, the root being depth 0, arity histograms indexed by arity and sizes estimated
+     * for a 64 bit JVM with compressed oops: 12 byte headers, 4 byte references and 8 byte alignment.
+     * Bytes cover the nodes and their arrays, not the keys and values they hold.
+     */
+    public static final class Stats {
+        final int count;
+        int[] nodes_per_depth = new int[0];
+        final int[] data_arities = new int[33];
+        final int[] node_arities = new int[33];
+        int collision_nodes;
+        int[] collision_sizes = new int[0];
+        int max_depth;
+        long bytes;
+        long shared_bytes;
+
+        Stats(int count) {
+            this.count = count;
         }
 
-        public final ITransientMap without(Object key) {
-            ensureEditable();
-            return doWithout(key);
+        static long object(int fields) {
+            return align(12 + (4 * fields));
         }
 
-        public final IPersistentMap persistent() {
-            ensureEditable();
-            return doPersistent();
+        static long array(Object[] array) {
+            return (array == null) ? 0 : align(16 + (4 * array.length));
         }
 
-        public final Object valAt(Object key, Object notFound) {
-            ensureEditable();
-            return doValAt(key, notFound);
+        static long array(int[] array) {
+            return (array == null) ? 0 : align(16 + (4 * array.length));
         }
 
-        public final int count() {
-            ensureEditable();
-            return doCount();
+        private static long align(long size) {
+            return ((size + 7) & ~7L);
         }
 
-        ITransientMap doAssoc(Object key, Object val) {
-            leafFlag.val = null;
-            INode n = ((this.root == null) ? BitmapIndexedNode.EMPTY : this.root)
-                    .assoc(this.edit, 0, Util.hasheq(key), key, val, leafFlag);
-            if (n != this.root) {
-                this.root = n;
+        void visit(INode node, int depth, Set<INode> other_nodes, boolean shared) {
+            // a node the other version reaches shares its whole subtree with it
+            final boolean in_other = shared || ((other_nodes != null) && other_nodes.contains(node));
+            if(depth >= this.nodes_per_depth.length) {
+                this.nodes_per_depth = Arrays.copyOf(this.nodes_per_depth, (depth + 1));
             }
-            if(leafFlag.val != null) {
-                this.count++;
-            }
-            return this;
-        }
+            this.nodes_per_depth[depth]++;
+            this.max_depth = Math.max(this.max_depth, depth);
 
-        IPersistentMap doPersistent() {
-            this.edit.set(null);
-            return new LeanMap(this.count, this.root);
-        }
+            final long size = node.estimatedBytes();
+            this.bytes += size;
+            if(in_other) {
+                this.shared_bytes += size;
+            }
 
-        Object doValAt(Object key, Object notFound) {
-            return root.find(0, Util.hasheq(key), key, notFound);
+            if(node instanceof HashCollisionNode) {
+                final int n = node.dataArity();
+                this.collision_nodes++;
+                if(n >= this.collision_sizes.length) {
+                    this.collision_sizes = Arrays.copyOf(this.collision_sizes, (n + 1));
+                }
+                this.collision_sizes[n]++;
+                return;
+            }
+            this.data_arities[node.dataArity()]++;
+            this.node_arities[node.nodeArity()]++;
+            for(int i = 1; i <= node.nodeArity(); i++) {
+                visit(node.getNode(i), (depth + 1), other_nodes, in_other);
+            }
         }
 
-        int doCount() {
+        public int count() {
             return this.count;
         }
 
-        void ensureEditable(){
-            if(this.edit.get() == null) {
-                throw new IllegalAccessError("Transient used after persistent! call");
-            }
+        public int[] nodesPerDepth() {
+            return this.nodes_per_depth.clone();
         }
 
-        ITransientMap doWithout(Object key) {
-            if (root == null) return this;
-            leafFlag.val = null;
-            INode n = root.without(edit, 0, Util.hasheq(key), key, leafFlag);
-            if (n != root) {
-                this.root = n;
-            }
-            if(leafFlag.val != null) {
-                this.count--;
-            }
-            return this;
+        /*
+         * Number of nodes by how many entries they hold inline, collision nodes left out
+         */
+        public int[] dataArities() {
+            return this.data_arities.clone();
         }
-    }
 
-    interface INode extends Serializable {
-        INode assoc(AtomicReference<Thread> edit, int shift, int hash, Object key, Object val, Box added_leaf);
+        /*
+         * Number of nodes by how many sub nodes they have, collision nodes left out
+         */
+        public int[] nodeArities() {
+            return this.node_arities.clone();
+        }
 
-        INode without(AtomicReference<Thread> edit, int shift, int hash, Object key, Box removed_leaf);
+        public int collisionNodes() {
+            return this.collision_nodes;
+        }
 
-        boolean singleKV();
+        /*
+         * Number of collision nodes by how many entries they hold
+         */
+        public int[] collisionSizes() {
+            return this.collision_sizes.clone();
+        }
 
-        Object find(int shift, int hash, Object key, Object not_found);
+        public int maxDepth() {
+            return this.max_depth;
+        }
 
-        IMapEntry find(int shift, int hash, Object key);
+        public long bytes() {
+            return this.bytes;
+        }
 
-        ISeq nodeSeq();
+        /*
+         * The part of bytes() in nodes the other version also reaches, 0 without one
+         */
+        public long sharedBytes() {
+            return this.shared_bytes;
+        }
+    }
 
-        boolean hasData();
+    public ISeq seq() { return  root != null ? root.nodeSeq() : null; }
 
-        boolean hasNodes();
+    public boolean equiv(Object obj){
+        if(obj instanceof LeanMap) {
+            return nodesEqual((LeanMap) obj, true);
+        }
+        return super.equiv(obj);
+    }
 
-        INode getNode(int node_idx);
+    public boolean equals(Object obj){
+        if(obj instanceof LeanMap) {
+            return nodesEqual((LeanMap) obj, false);
+        }
+        return super.equals(obj);
+    }
 
-        Object[] getArray();
+    private boolean nodesEqual(LeanMap other, boolean equiv){
+        if(this.count != other.count) {
+            return false;
+        }
+        if((this.root == other.root) || (this.count == 0)) {
+            return true;
+        }
+        if((isHashed() != other.isHashed()) || ((this.root instanceof FlatNode) != (other.root instanceof FlatNode))) {
+            // the roots differ in layout, hashed against plain or a flat against a trie, so compare entry by entry
+            return equiv ? super.equiv(other) : super.equals(other);
+        }
+        return this.root.equiv(other.root, equiv);
+    }
 
-        int nodeArity();
+    public int hasheq(){
+        return Murmur3.mixCollHash(((root == null) ? 0 : root.hasheq()), this.count);
+    }
 
-        int dataArity();
+    /*
+     * Same as Util.hasheq(MapEntry.create(key, val)) without creating the entry
+     */
+    static int hashEntry(Object key, Object val){
+        return hashEntry(Util.hasheq(key), val);
+    }
 
-        Object fold(IFn combinef, IFn reducef, IFn fjtask, IFn fjfork, IFn fjjoin);
+    static int hashEntry(int key_hash, Object val){
+        return Murmur3.mixCollHash((31 * (31 + key_hash)) + Util.hasheq(val), 2);
+    }
 
-        public Object kvreduce(IFn f, Object init);
+    static boolean valEquals(Object x, Object y, boolean equiv){
+        return equiv ? Util.equiv(x, y) : Util.equals(x, y);
     }
 
-    final static class BitmapIndexedNode implements INode {
-        public static final BitmapIndexedNode EMPTY = new BitmapIndexedNode(null, 0, 0, new Object[0]);
+    public Object kvreduce(IFn f, Object init) {
+        if(RT.isReduced(init)) {
+            return ((IDeref)init).deref();
+        }
+        if(root != null){
+            init = root.kvreduce(f,init);
+            if(RT.isReduced(init)) {
+                return ((IDeref) init).deref();
+            } else {
+                return init;
+            }
+        }
+        return init;
+    }
+
+    /*
+     * The entries of a trie in seq, chunked by node: a chunk is the data of one node, so the chunked paths of
+     * map, filter, doseq or into take a node at a time. The nodes left to visit are a stack of Frames the seqs
+     * share, so moving to the next node pushes a frame or two rather than copying the whole stack.
+     */
+    static final class NodeSeq extends ASeq implements IChunkedSeq {
+        // null for a LeafNode, whose entries are read from its fields rather than copied out
+        final Object[] array;
+        final INode node;
+        final int data_idx;
+        final Frame frame;
+
+        NodeSeq(IPersistentMap meta, Object[] array, INode node, int data_idx, Frame frame) {
+            super(meta);
+            this.array = array;
+            this.node = node;
+            this.data_idx = data_idx;
+            this.frame = frame;
+        }
+
+        /*
+         * The seq from the first entry of node, which has data, and then the nodes on frame
+         */
+        static NodeSeq of(INode node, Frame frame) {
+            return new NodeSeq(null, ((node instanceof LeafNode) ? null : node.getArray()), node, 0, frame);
+        }
+
+        private Object key(int idx) {
+            return (this.array != null) ? this.array[(2 * idx)] : ((LeafNode) this.node).keyAt(idx);
+        }
+
+        private Object val(int idx) {
+            return (this.array != null) ? this.array[((2 * idx) + 1)] : ((LeafNode) this.node).valAt(idx);
+        }
+
+        /*
+         * A node whose children from 1 to node_idx are still to be visited, the highest first
+         */
+        static final class Frame {
+            final INode node;
+            final int node_idx;
+            final Frame parent;
+
+            Frame(INode node, int node_idx, Frame parent) {
+                this.node = node;
+                this.node_idx = node_idx;
+                this.parent = parent;
+            }
+        }
+
+        static NodeSeq create(INode root) {
+            final Frame frame = root.hasNodes() ? new Frame(root, root.nodeArity(), null) : null;
+            if (root.hasData()) {
+                return of(root, frame);
+            }
+            return create(frame);
+        }
+
+        /*
+         * The seq from the next node with data on the stack, null when there is none
+         */
+        static NodeSeq create(Frame frame) {
+            while (frame != null) {
+                final INode node = frame.node.getNode(frame.node_idx);
+                Frame next = (frame.node_idx == 1) ? frame.parent : new Frame(frame.node, (frame.node_idx - 1), frame.parent);
+                if (node.hasNodes()) {
+                    next = new Frame(node, node.nodeArity(), next);
+                }
+                if (node.hasData()) {
+                    return of(node, next);
+                }
+                frame = next;
+            }
+            return null;
+        }
+
+        public Obj withMeta(IPersistentMap meta) {
+            return new NodeSeq(meta, this.array, this.node, this.data_idx, this.frame);
+        }
+
+        public Object first() {
+            return MapEntry.create(key(this.data_idx), val(this.data_idx));
+        }
+
+        public ISeq next() {
+            if ((this.data_idx + 1) < this.node.dataArity()) {
+                return new NodeSeq(null, this.array, this.node, (this.data_idx + 1), this.frame);
+            }
+            return create(this.frame);
+        }
+
+        public IChunk chunkedFirst() {
+            final Object[] entries = new Object[(this.node.dataArity() - this.data_idx)];
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = MapEntry.create(key((this.data_idx + i)), val((this.data_idx + i)));
+            }
+            return new ArrayChunk(entries);
+        }
+
+        public ISeq chunkedNext() {
+            return create(this.frame);
+        }
+
+        public ISeq chunkedMore() {
+            final ISeq next = chunkedNext();
+            return (next == null) ? PersistentList.EMPTY : next;
+        }
+
+        public static Object kvreduce(Object[] array, int key_values, int nodes, IFn f, Object init) {
+            int key_value_len = (2 * key_values);
+            int node_len = key_value_len + nodes;
+
+            int i = 0;
+            while (i < node_len) {
+                if (i < key_value_len) {
+                    init = f.invoke(init, array[i], array[(i + 1)]);
+                    i = i + 2;
+                } else {
+                    init = ((INode) array[i]).kvreduce(f, init);
+                    i = i + 1;
+                }
+                if (RT.isReduced(init)) {
+                    return init;
+                }
+            }
+            return init;
+        }
+    }
+
+    /*
+     * A cursor over the entries of a trie: advance() moves to the next entry, false once past the last, and
+     * key() and val() read the entry it is on. Nothing is allocated per entry and there is no call through an
+     * IFn, so a loop over keys or vals inlines all of it. A cursor is not thread safe and not restartable.
+     */
+    public static class Cursor {
+        final INode[] nodes = new INode[7];
+        final int[] cursor_lengths = new int[7];
+        // leaves are copied into one array of the cursor's rather than each getting their own
+        final Object[] leaf_array = new Object[4];
 
-        int datamap;
-        int nodemap;
         Object[] array;
-        final AtomicReference<Thread> edit;
+        int lvl;
+        int data_idx;
+        int data_len;
 
-        int bitmapNodeIndex(final int bitmap, final int bitpos) {
-            return Integer.bitCount(bitmap & (bitpos - 1));
+        Cursor(INode root) {
+            if (root == null) {
+                this.lvl = -1;
+                return;
+            }
+            this.nodes[0] = root;
+            this.cursor_lengths[0] = root.nodeArity();
+            this.array = arrayOf(root);
+            this.lvl = 0;
+            this.data_idx = -1;
+            this.data_len = root.dataArity();
+        }
+
+        public final boolean advance() {
+            if ((this.data_idx + 1) < this.data_len) {
+                this.data_idx++;
+                return true;
+            }
+            while (this.lvl >= 0) {
+                final int node_idx = this.cursor_lengths[this.lvl];
+                if (node_idx == 0) {
+                    this.lvl--;
+                    continue;
+                }
+                this.cursor_lengths[this.lvl] = (node_idx - 1);
+
+                final INode node = this.nodes[this.lvl].getNode(node_idx);
+                if (node.hasNodes()) {
+                    this.lvl++;
+                    this.nodes[this.lvl] = node;
+                    this.cursor_lengths[this.lvl] = node.nodeArity();
+                }
+                if (node.hasData()) {
+                    this.array = arrayOf(node);
+                    this.data_idx = 0;
+                    this.data_len = node.dataArity();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public final Object key() {
+            return this.array[(2 * this.data_idx)];
+        }
+
+        public final Object val() {
+            return this.array[((2 * this.data_idx) + 1)];
+        }
+
+        private Object[] arrayOf(INode node) {
+            if (node instanceof LeafNode) {
+                final LeafNode leaf = (LeafNode) node;
+                this.leaf_array[0] = leaf.key0;
+                this.leaf_array[1] = leaf.val0;
+                this.leaf_array[2] = leaf.key1;
+                this.leaf_array[3] = leaf.val1;
+                return this.leaf_array;
+            }
+            return node.getArray();
+        }
+    }
+
+    /*
+     * The iterators over a cursor, one class each for entries, keys and vals so that next() stays monomorphic
+     */
+    static abstract class CursorIter extends Cursor implements Iterator {
+        private boolean ready;
+
+        CursorIter(INode root) {
+            super(root);
+        }
+
+        public final boolean hasNext() {
+            if (!this.ready) {
+                this.ready = advance();
+            }
+            return this.ready;
+        }
+
+        final void step() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            this.ready = false;
+        }
+
+        public final void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    static final class EntryIter extends CursorIter {
+        EntryIter(INode root) {
+            super(root);
+        }
+
+        public Object next() {
+            step();
+            return MapEntry.create(key(), val());
+        }
+    }
+
+    static final class KeyIter extends CursorIter {
+        KeyIter(INode root) {
+            super(root);
+        }
+
+        public Object next() {
+            step();
+            return key();
+        }
+    }
+
+    static final class ValIter extends CursorIter {
+        ValIter(INode root) {
+            super(root);
+        }
+
+        public Object next() {
+            step();
+            return val();
+        }
+    }
+
+    /*
+     * Splits a trie along its nodes for parallel streams. A split takes half of the children left to visit, or,
+     * with one child left, the child itself, descending into it when no entries are left beside it. Only a
+     * spliterator of a whole map or of a node's inline entries knows its size, a split estimates its own from
+     * the share of children it took.
+     */
+    static final class NodeSpliterator implements Spliterator<Object> {
+        final IFn f;
+        final int characteristics;
+
+        INode node;
+        Object[] array;
+        // leaves are copied into this rather than each getting an array, as in Cursor
+        Object[] leaf_array;
+        int data_idx;
+        int data_len;
+        // the children of node still to visit, 1-based, from node_lo to node_hi
+        int node_lo;
+        int node_hi;
+        // the child being visited by tryAdvance
+        Cursor cursor;
+        long est;
+        boolean sized;
+
+        NodeSpliterator(INode node, long est, boolean sized, IFn f, int characteristics) {
+            this.f = f;
+            this.characteristics = characteristics;
+            this.est = est;
+            this.sized = sized;
+            visit(node);
+        }
+
+        private void visit(INode node) {
+            this.node = node;
+            if (node instanceof LeafNode) {
+                final LeafNode leaf = (LeafNode) node;
+                if (this.leaf_array == null) {
+                    this.leaf_array = new Object[4];
+                }
+                this.leaf_array[0] = leaf.key0;
+                this.leaf_array[1] = leaf.val0;
+                this.leaf_array[2] = leaf.key1;
+                this.leaf_array[3] = leaf.val1;
+                this.array = this.leaf_array;
+            } else {
+                this.array = node.getArray();
+            }
+            this.data_idx = 0;
+            this.data_len = node.dataArity();
+            this.node_lo = 1;
+            this.node_hi = node.nodeArity();
+        }
+
+        public boolean tryAdvance(Consumer<? super Object> action) {
+            if (this.data_idx < this.data_len) {
+                final int idx = (2 * this.data_idx);
+                this.data_idx++;
+                this.est--;
+                action.accept(this.f.invoke(this.array[idx], this.array[(idx + 1)]));
+                return true;
+            }
+            while ((this.cursor == null) || !this.cursor.advance()) {
+                if (this.node_lo > this.node_hi) {
+                    this.cursor = null;
+                    return false;
+                }
+                this.cursor = new Cursor(this.node.getNode(this.node_lo++));
+            }
+            this.est--;
+            action.accept(this.f.invoke(this.cursor.key(), this.cursor.val()));
+            return true;
+        }
+
+        public void forEachRemaining(final Consumer<? super Object> action) {
+            while (this.data_idx < this.data_len) {
+                final int idx = (2 * this.data_idx);
+                this.data_idx++;
+                action.accept(this.f.invoke(this.array[idx], this.array[(idx + 1)]));
+            }
+            if (this.cursor != null) {
+                while (this.cursor.advance()) {
+                    action.accept(this.f.invoke(this.cursor.key(), this.cursor.val()));
+                }
+                this.cursor = null;
+            }
+            final IFn accept = new AFn() {
+                public Object invoke(Object acc, Object key, Object val) {
+                    action.accept(f.invoke(key, val));
+                    return acc;
+                }
+            };
+            while (this.node_lo <= this.node_hi) {
+                this.node.getNode(this.node_lo++).kvreduce(accept, null);
+            }
+            this.est = 0;
+        }
+
+        public Spliterator<Object> trySplit() {
+            while (true) {
+                final int children = ((this.node_hi - this.node_lo) + 1);
+                if (children >= 2) {
+                    final int mid = (this.node_lo + (children / 2));
+                    final long split_est = ((this.est * ((this.node_hi - mid) + 1)) / children);
+                    final NodeSpliterator split = new NodeSpliterator(this.node, split_est, false, this.f, this.characteristics);
+                    split.data_len = 0;
+                    split.node_lo = mid;
+                    split.node_hi = this.node_hi;
+                    this.node_hi = (mid - 1);
+                    this.est -= split_est;
+                    this.sized = false;
+                    return split;
+                } else if ((children == 1) && (this.cursor == null)) {
+                    final INode child = this.node.getNode(this.node_lo);
+                    final int data_left = (this.data_len - this.data_idx);
+                    if (data_left == 0) {
+                        // nothing to split off beside the child, split within it
+                        visit(child);
+                        continue;
+                    }
+                    this.node_lo++;
+                    final NodeSpliterator split = new NodeSpliterator(child, (this.est - data_left), false, this.f, this.characteristics);
+                    this.est = data_left;
+                    this.sized = true;
+                    return split;
+                }
+                return null;
+            }
+        }
+
+        public long estimateSize() {
+            return this.est;
+        }
+
+        public int characteristics() {
+            return this.sized ? (this.characteristics | Spliterator.SIZED) : this.characteristics;
+        }
+    }
+
+    public IPersistentMap meta(){
+        return _meta;
+    }
+
+    public int count(){
+        return count;
+    }
+
+    public LeanMap withMeta(IPersistentMap meta){
+        return new LeanMap(meta, count, root);
+    }
+
+    public IPersistentCollection empty(){
+        return (isHashed() ? EMPTY_HASHED : EMPTY).withMeta(meta());
+    }
+
+    public boolean isHashed(){
+        return isHashed(this.root);
+    }
+
+    static boolean isHashed(INode root){
+        return (root instanceof BitmapIndexedNode) && (((BitmapIndexedNode) root).hashes != null);
+    }
+
+    /*
+     * The root of a map of count entries, a trie that shrank to FLAT_THRESHOLD entries demoted to a FlatNode
+     * unless the map is hashed
+     */
+    static INode flatten(INode root, int count) {
+        if((count > FLAT_THRESHOLD) || (root == null) || (root instanceof FlatNode) || isHashed(root)) {
+            return root;
+        }
+        if(count == 0) {
+            return FlatNode.EMPTY;
+        }
+        final Object[] array = new Object[(2 * count)];
+        root.kvreduce(new AFn() {
+            int i = 0;
+
+            public Object invoke(Object acc, Object key, Object val) {
+                array[i++] = key;
+                array[i++] = val;
+                return acc;
+            }
+        }, null);
+        return new FlatNode(null, array);
+    }
+
+    /*
+     * Collects what each of the 32 root slots holds, in slot order, into a root node: nothing, one entry
+     * inlined, or the node of the entries under it at shift 5. Joining a fork and snapshotting a
+     * ConcurrentLeanMap both build their root with it in O(32).
+     */
+    static final class RootBuilder {
+        final boolean hashed;
+        final Object[] data = new Object[64];
+        final int[] hashes = new int[32];
+        final INode[] nodes = new INode[32];
+        int datamap;
+        int nodemap;
+        int data_len;
+        int node_len;
+
+        RootBuilder(boolean hashed) {
+            this.hashed = hashed;
+        }
+
+        void entry(int slot, int hash, Object key, Object val) {
+            this.datamap |= (1 << slot);
+            this.hashes[(this.data_len / 2)] = hash;
+            this.data[this.data_len++] = key;
+            this.data[this.data_len++] = val;
+        }
+
+        void node(int slot, INode node) {
+            this.nodemap |= (1 << slot);
+            this.nodes[this.node_len++] = node;
+        }
+
+        /*
+         * @return the root, null for a map with no entries that is not hashed
+         */
+        INode build(AtomicReference<Object> edit) {
+            if ((this.datamap | this.nodemap) == 0) {
+                return this.hashed ? BitmapIndexedNode.EMPTY_HASHED : null;
+            }
+            // nodes sit after the inline entries in reverse slot order
+            final Object[] array = Arrays.copyOf(this.data, (this.data_len + this.node_len));
+            for (int i = 0; i < this.node_len; i++) {
+                array[(array.length - 1 - i)] = this.nodes[i];
+            }
+            int[] hashes = null;
+            if (this.hashed) {
+                hashes = (this.data_len == 0) ? BitmapIndexedNode.NO_HASHES : Arrays.copyOf(this.hashes, (this.data_len / 2));
+            }
+            return BitmapIndexedNode.create(edit, this.datamap, this.nodemap, array, hashes);
+        }
+    }
+
+    static int mask(int hash, int shift) {return (hash >>> shift) & 0x01f; }
+
+    static int bitpos(int hash, int shift){
+        return 1 << mask(hash, shift);
+    }
+
+    /*
+     * The bitmap layout of BitmapIndexedNode, shared with LongLeanMap's nodes: inline entries in datamap order at
+     * the front of the array, width slots each, and sub-nodes in reverse nodemap order at the back
+     */
+    static int index(int bitmap, int bit){
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    // the array with width empty slots at idx, for the caller to fill
+    static Object[] insertSlots(Object[] array, int idx, int width){
+        final Object[] dst = new Object[(array.length + width)];
+        System.arraycopy(array, 0, dst, 0, idx);
+        System.arraycopy(array, idx, dst, (idx + width), (array.length - idx));
+        return dst;
+    }
+
+    static Object[] removeSlots(Object[] array, int idx, int width){
+        final Object[] dst = new Object[(array.length - width)];
+        System.arraycopy(array, 0, dst, 0, idx);
+        System.arraycopy(array, (idx + width), dst, idx, (array.length - width - idx));
+        return dst;
+    }
+
+    /*
+     * The array with the entry at bit replaced by node among the sub-nodes
+     */
+    static Object[] migrateToNode(Object[] array, int width, int datamap, int nodemap, int bit, Object node){
+        final int idx_old = (width * index(datamap, bit));
+        final int idx_new = (array.length - width - index(nodemap, bit));
+        final Object[] dst = new Object[(array.length - width + 1)];
+
+        System.arraycopy(array, 0, dst, 0, idx_old);
+        System.arraycopy(array, (idx_old + width), dst, idx_old, (idx_new - idx_old));
+        dst[idx_new] = node;
+        System.arraycopy(array, (idx_new + width), dst, (idx_new + 1), (array.length - width - idx_new));
+        return dst;
+    }
+
+    /*
+     * The array with the sub-node at bit taken out and width empty slots at width * index(datamap, bit) for the
+     * caller to fill with the node's one entry
+     */
+    static Object[] migrateToInline(Object[] array, int width, int datamap, int nodemap, int bit){
+        final int idx_old = (array.length - 1 - index(nodemap, bit));
+        final int idx_new = (width * index(datamap, bit));
+        final Object[] dst = new Object[(array.length + width - 1)];
+
+        System.arraycopy(array, 0, dst, 0, idx_new);
+        System.arraycopy(array, idx_new, dst, (idx_new + width), (idx_old - idx_new));
+        System.arraycopy(array, (idx_old + 1), dst, (idx_old + width), (array.length - 1 - idx_old));
+        return dst;
+    }
+
+    /*
+     * Compaction on delete: removing one of two entries from a node without sub-nodes leaves the other for the
+     * parent to inline, at the root slot of the removed key's hash unless the node is the root
+     */
+    static boolean collapsesOnRemove(int datamap, int nodemap){
+        return (Integer.bitCount(datamap) == 2) && (nodemap == 0);
+    }
+
+    static int collapsedDatamap(int shift, int datamap, int bit, int hash){
+        return (shift == 0) ? (datamap ^ bit) : bitpos(hash, 0);
+    }
+
+    // a sub-node left with one entry replaces a parent holding nothing else, and is inlined otherwise
+    static boolean onlySubNode(int datamap, int nodemap){
+        return (datamap == 0) && (Integer.bitCount(nodemap) == 1);
+    }
+
+    final private static Object LIVE = new Object();
+
+    /*
+     * A fresh edit token, standing for its owner by identity and holding LIVE until persistent! nulls it.
+     * Tokens are not tied to a thread, so a transient can be handed between threads, and two owners that
+     * share a pooled or virtual thread never edit each other's nodes.
+     */
+    static AtomicReference<Object> newEdit() {
+        return new AtomicReference<Object>(LIVE);
+    }
+
+    private static boolean isAllowedToEdit(AtomicReference<Object> x, AtomicReference<Object> y) {
+        return (x != null) && (x == y);
+    }
+
+    private static Object[] removePair(Object[] array, int i) {
+        Object[] newArray = new Object[array.length - 2];
+        System.arraycopy(array, 0, newArray, 0, 2*i);
+        System.arraycopy(array, 2*(i+1), newArray, 2*i, newArray.length - 2*i);
+        return newArray;
+    }
+
+    public TransientLeanMap asTransient() {
+        return new TransientLeanMap(this);
+    }
+
+    /*
+     * root and count are plain fields, as a transient has a single owner at a time and a hand-off between
+     * threads has to provide happens-before anyway. persistent! publishes them with one barrier, nulling the
+     * token, and marks the transient finished in a plain field that later calls check without a barrier.
+     */
+    public static final class TransientLeanMap extends AFn implements ITransientMap {
+        final AtomicReference<Object> edit;
+        INode root;
+        int count;
+        // set with the token nulled by persistent! or join, read without a barrier on every call
+        boolean finished;
+        final Box leafFlag = new Box(null);
+        // the root slot a child of fork is limited to, -1 for a whole map
+        final int slot;
+        // a child's count starts at 0, what its slot held at fork is counted off forked_root only when asked
+        INode forked_root;
+        int forked_count;
+        // set between fork and join, when this transient can not be used
+        TransientLeanMap[] children;
+
+        TransientLeanMap(LeanMap m) {
+            this(newEdit(), m.root, m.count, -1);
+        }
+
+        TransientLeanMap(AtomicReference<Object> edit, INode root, int count, int slot) {
+            this.edit = edit;
+            this.root = root;
+            this.count = count;
+            this.slot = slot;
+        }
+
+        /*
+         * The root slot of key, the child of fork that takes it
+         */
+        public static int slotOf(Object key) {
+            return mask(Util.hasheq(key), 0);
+        }
+
+        /*
+         * Splits this transient into 32 children, child i holding the entries whose keys are in root slot i and
+         * taking only those keys. Children have tokens of their own, so different threads can fill different
+         * children at the same time. This transient can not be used until join.
+         */
+        public TransientLeanMap[] fork() {
+            ensureEditable();
+            if(this.slot >= 0) {
+                throw new UnsupportedOperationException("A child of fork can not fork");
+            }
+            final INode[] roots = new INode[32];
+            final int[] counts = new int[32];
+            split(this.root, roots, counts);
+
+            final TransientLeanMap[] children = new TransientLeanMap[32];
+            for(int i = 0; i < 32; i++) {
+                children[i] = new TransientLeanMap(newEdit(), roots[i], 0, i);
+                children[i].forked_root = roots[i];
+                children[i].forked_count = counts[i];
+            }
+            this.children = children;
+            return children.clone();
+        }
+
+        /*
+         * The root of each slot on its own, counts holding -1 for subtrees only counting them could tell
+         */
+        private static void split(INode root, final INode[] roots, final int[] counts) {
+            if(root instanceof BitmapIndexedNode) {
+                final BitmapIndexedNode node = (BitmapIndexedNode) root;
+                final boolean hashed = (node.hashes != null);
+                for(int i = 0; i < 32; i++) {
+                    final int bit = (1 << i);
+                    if((node.datamap & bit) != 0) {
+                        final int idx = node.bitmapNodeIndex(node.datamap, bit);
+                        final int[] hashes = hashed ? new int[] { node.hashes[idx] } : null;
+                        roots[i] = BitmapIndexedNode.create(null, bit, 0, new Object[] { node.array[(2 * idx)], node.array[((2 * idx) + 1)] }, hashes);
+                        counts[i] = 1;
+                    } else if((node.nodemap & bit) != 0) {
+                        final int[] hashes = hashed ? BitmapIndexedNode.NO_HASHES : null;
+                        roots[i] = BitmapIndexedNode.create(null, 0, bit, new Object[] { node.array[node.nodeAt(bit)] }, hashes);
+                        counts[i] = -1;
+                    } else {
+                        roots[i] = hashed ? BitmapIndexedNode.EMPTY_HASHED : null;
+                    }
+                }
+            } else if(root != null) {
+                // a FlatNode or LeafNode root, a few entries and never hashed
+                final Object[][] arrays = new Object[32][];
+                root.kvreduce(new AFn() {
+                    public Object invoke(Object acc, Object key, Object val) {
+                        final int i = slotOf(key);
+                        arrays[i] = (arrays[i] == null) ? new Object[2] : Arrays.copyOf(arrays[i], (arrays[i].length + 2));
+                        arrays[i][(arrays[i].length - 2)] = key;
+                        arrays[i][(arrays[i].length - 1)] = val;
+                        counts[i]++;
+                        return acc;
+                    }
+                }, null);
+                for(int i = 0; i < 32; i++) {
+                    roots[i] = (arrays[i] == null) ? null : new FlatNode(null, arrays[i]);
+                }
+            }
+        }
+
+        /*
+         * Takes back the entries of the children fork returned in O(32), after which the children can not be used.
+         * Whatever hands the children back to this thread has to order their writes before the join, as joining
+         * a ForkJoinTask or getting a Future does.
+         */
+        public TransientLeanMap join(TransientLeanMap[] children) {
+            if(this.finished) {
+                throw new IllegalAccessError("Transient used after persistent! call");
+            }
+            if((this.children == null) || (children.length != 32)) {
+                throw new IllegalArgumentException("Not the children of this transient's fork");
+            }
+            for(int i = 0; i < 32; i++) {
+                if(children[i] != this.children[i]) {
+                    throw new IllegalArgumentException("Not the children of this transient's fork");
+                }
+                children[i].ensureEditable();
+            }
+
+            final RootBuilder builder = new RootBuilder(isHashed(this.root));
+            int count = this.count;
+            for(int i = 0; i < 32; i++) {
+                final TransientLeanMap child = children[i];
+                count += child.count;
+                child.addSlot(builder);
+                child.finished = true;
+                child.edit.set(null);
+            }
+            this.root = builder.build(this.edit);
+            this.count = count;
+            this.children = null;
+            return this;
+        }
+
+        /*
+         * Adds what this child holds in its slot to builder
+         */
+        private void addSlot(RootBuilder builder) {
+            if(this.root instanceof FlatNode) {
+                final Object[] array = ((FlatNode) this.root).array;
+                if(array.length == 2) {
+                    builder.entry(this.slot, 0, array[0], array[1]);
+                } else if(array.length > 2) {
+                    // the subtree at shift 5 a trie root would have over these entries
+                    INode node = BitmapIndexedNode.EMPTY;
+                    for(int i = 0; i < array.length; i += 2) {
+                        node = node.assoc(null, 5, Util.hasheq(array[i]), array[i], array[(i + 1)], new Box(null));
+                    }
+                    builder.node(this.slot, node);
+                }
+            } else if(this.root instanceof LeafNode) {
+                final LeafNode leaf = (LeafNode) this.root;
+                builder.entry(this.slot, 0, leaf.key0, leaf.val0);
+            } else if(this.root != null) {
+                final BitmapIndexedNode node = (BitmapIndexedNode) this.root;
+                if(node.datamap != 0) {
+                    builder.entry(this.slot, ((node.hashes == null) ? 0 : node.hashes[0]), node.array[0], node.array[1]);
+                } else if(node.nodemap != 0) {
+                    builder.node(this.slot, (INode) node.array[(node.array.length - 1)]);
+                }
+            }
+        }
+        //ATransientMap Inlining
+        public ITransientMap conj(Object o) {
+            ensureEditable();
+            if(o instanceof Map.Entry)
+            {
+                Map.Entry e = (Map.Entry) o;
+
+                return assoc(e.getKey(), e.getValue());
+            }
+            else if(o instanceof IPersistentVector)
+            {
+                IPersistentVector v = (IPersistentVector) o;
+                if(v.count() != 2)
+                    throw new IllegalArgumentException("Vector arg to map conj must be a pair");
+                return assoc(v.nth(0), v.nth(1));
+            }
+
+            ITransientMap ret = this;
+            for(ISeq es = RT.seq(o); es != null; es = es.next())
+            {
+                Map.Entry e = (Map.Entry) es.first();
+                ret = ret.assoc(e.getKey(), e.getValue());
+            }
+            return ret;
+        }
+
+        public final Object invoke(Object arg1) {
+            return valAt(arg1);
+        }
+
+        public final Object invoke(Object arg1, Object notFound) {
+            return valAt(arg1, notFound);
+        }
+
+        public final Object valAt(Object key) {
+            return valAt(key, null);
+        }
+
+        public final ITransientMap assoc(Object key, Object val) {
+            ensureEditable();
+            return doAssoc(key, val);
+        }
+
+        public final ITransientMap without(Object key) {
+            ensureEditable();
+            return doWithout(key);
+        }
+
+        public final IPersistentMap persistent() {
+            ensureEditable();
+            return doPersistent();
+        }
+
+        public final Object valAt(Object key, Object notFound) {
+            ensureEditable();
+            return doValAt(key, notFound);
+        }
+
+        public final int count() {
+            ensureEditable();
+            return doCount();
+        }
+
+        ITransientMap doAssoc(Object key, Object val) {
+            if((this.slot >= 0) && (slotOf(key) != this.slot)) {
+                throw new IllegalArgumentException("Key is in root slot " + slotOf(key) + ", not " + this.slot + ": " + key);
+            }
+            leafFlag.val = null;
+            final INode root = (this.root == null) ? FlatNode.EMPTY : this.root;
+            INode n = root.assoc(this.edit, 0, hash(root, key), key, val, leafFlag);
+            if (n != this.root) {
+                this.root = n;
+            }
+            if(leafFlag.val != null) {
+                this.count++;
+            }
+            return this;
+        }
+
+        IPersistentMap doPersistent() {
+            final int count = doCount();
+            this.finished = true;
+            this.edit.set(null);
+            return new LeanMap(count, flatten(this.root, count));
+        }
+
+        Object doValAt(Object key, Object notFound) {
+            return (root != null) ? root.find(0, hash(root, key), key, notFound) : notFound;
+        }
+
+        int doCount() {
+            if(this.slot < 0) {
+                return this.count;
+            }
+            if(this.forked_count < 0) {
+                this.forked_count = countEntries(this.forked_root);
+            }
+            this.forked_root = null;
+            return (this.forked_count + this.count);
+        }
+
+        private static int countEntries(INode node) {
+            int count = node.dataArity();
+            for(int i = 1; i <= node.nodeArity(); i++) {
+                count += countEntries(node.getNode(i));
+            }
+            return count;
+        }
+
+        void ensureEditable(){
+            if(this.finished) {
+                throw new IllegalAccessError("Transient used after persistent! call");
+            }
+            if(this.children != null) {
+                throw new IllegalAccessError("Transient used between fork and join");
+            }
+        }
+
+        ITransientMap doWithout(Object key) {
+            if (root == null) return this;
+            leafFlag.val = null;
+            INode n = root.without(edit, 0, hash(root, key), key, leafFlag);
+            if (n != root) {
+                this.root = n;
+            }
+            if(leafFlag.val != null) {
+                this.count--;
+            }
+            return this;
+        }
+    }
+
+    interface INode extends Serializable {
+        INode assoc(AtomicReference<Object> edit, int shift, int hash, Object key, Object val, Box added_leaf);
+
+        INode without(AtomicReference<Object> edit, int shift, int hash, Object key, Box removed_leaf);
+
+        boolean singleKV();
+
+        Object find(int shift, int hash, Object key, Object not_found);
+
+        IMapEntry find(int shift, int hash, Object key);
+
+        ISeq nodeSeq();
+
+        boolean hasData();
+
+        boolean hasNodes();
+
+        INode getNode(int node_idx);
+
+        Object[] getArray();
+
+        int nodeArity();
+
+        int dataArity();
+
+        /*
+         * @param n    the partition size, subtrees estimated below it are reduced inline
+         * @param size the estimated number of entries under this node
+         */
+        Object fold(long n, long size, IFn combinef, IFn reducef, IFn fjtask, IFn fjfork, IFn fjjoin);
+
+        public Object kvreduce(IFn f, Object init);
+
+        /*
+         * Compaction on delete keeps the trie canonical, so maps with the same entries have the same shape
+         *
+         * @param equiv compare values with Util.equiv when true, Util.equals otherwise
+         */
+        boolean equiv(INode other, boolean equiv);
+
+        /*
+         * Unordered sum of the entry hashes under this node, computed once and cached in the node.
+         * Nodes are only mutated in place by their own transient, which can not be hashed.
+         */
+        int hasheq();
+
+        /*
+         * Size of this node and the arrays it owns, estimated as described on Stats
+         */
+        long estimatedBytes();
+    }
+
+    final static class BitmapIndexedNode implements INode {
+        public static final BitmapIndexedNode EMPTY = new BitmapIndexedNode(null, 0, 0, new Object[0]);
+        static final int[] NO_HASHES = new int[0];
+        public static final BitmapIndexedNode EMPTY_HASHED = new BitmapIndexedNode(null, 0, 0, new Object[0], NO_HASHES);
+
+        int datamap;
+        int nodemap;
+        Object[] array;
+        /*
+         * Key hashes of the inline entries in datamap order, null unless the map was built from EMPTY_HASHED.
+         * Never mutated in place, so copies that leave the datamap alone share it.
+         */
+        final int[] hashes;
+        final AtomicReference<Object> edit;
+        int _hasheq;
+
+        int bitmapNodeIndex(final int bitmap, final int bitpos) {
+            return index(bitmap, bitpos);
+        }
+
+        int nodeAt(final int bit) {
+            return this.array.length - 1 - bitmapNodeIndex(this.nodemap, bit);
+        }
+
+        BitmapIndexedNode(AtomicReference<Object> edit,  int datamap, int nodemap, Object[] array) {
+            this(edit, datamap, nodemap, array, null);
+        }
+
+        BitmapIndexedNode(AtomicReference<Object> edit,  int datamap, int nodemap, Object[] array, int[] hashes) {
+            this.edit = edit;
+            this.datamap = datamap;
+            this.nodemap = nodemap;
+            this.array = array;
+            this.hashes = hashes;
+        }
+
+        /*
+         * A LeafNode in place of a node with at most two entries, no sub-nodes and no hashes. Every such node
+         * is made here, so each shape has one class and equiv can compare nodes class by class.
+         */
+        static INode create(AtomicReference<Object> edit, int datamap, int nodemap, Object[] array, int[] hashes) {
+            if ((nodemap == 0) && (hashes == null) && (array.length != 0) && (array.length <= 4)) {
+                if (array.length == 2) {
+                    return new LeafNode(edit, datamap, array[0], array[1]);
+                } else {
+                    return new LeafNode(edit, datamap, array[0], array[1], array[2], array[3]);
+                }
+            }
+            return new BitmapIndexedNode(edit, datamap, nodemap, array, hashes);
+        }
+
+        private int keyHash(int idx) {
+            return (this.hashes != null) ? this.hashes[idx] : Util.hasheq(this.array[(2 * idx)]);
+        }
+
+        private static int[] insertHash(int[] hashes, int idx, int hash) {
+            if (hashes == null) {
+                return null;
+            }
+            final int[] dst = new int[(hashes.length + 1)];
+            System.arraycopy(hashes, 0, dst, 0, idx);
+            dst[idx] = hash;
+            System.arraycopy(hashes, idx, dst, (idx + 1), (hashes.length - idx));
+            return dst;
+        }
+
+        private static int[] removeHash(int[] hashes, int idx) {
+            if (hashes == null) {
+                return null;
+            }
+            if (hashes.length == 1) {
+                return NO_HASHES;
+            }
+            final int[] dst = new int[(hashes.length - 1)];
+            System.arraycopy(hashes, 0, dst, 0, idx);
+            System.arraycopy(hashes, (idx + 1), dst, idx, (hashes.length - 1 - idx));
+            return dst;
+        }
+
+        private INode copyAndSet(AtomicReference<Object> edit, int idx, Object val) {
+            if (isAllowedToEdit(edit, this.edit)) {
+                array[idx] = val;
+                return this;
+            } else {
+                final Object[] new_array = this.array.clone();
+                new_array[idx] = val;
+
+                return new BitmapIndexedNode(edit, datamap, nodemap, new_array, this.hashes);
+            }
+        }
+
+        private INode mergeTwoKeyValuePairs(AtomicReference<Object> edit, int shift, int current_hash, Object current_key, Object current_val, int hash, Object key, Object val) {
+            return mergeTwoKeyValuePairs(edit, shift, current_hash, current_key, current_val, hash, key, val, (this.hashes != null));
+        }
+
+        static INode mergeTwoKeyValuePairs(AtomicReference<Object> edit, int shift, int current_hash, Object current_key, Object current_val, int hash, Object key, Object val, boolean hashed) {
+            if ((32 < shift) && (current_hash == hash)) {
+                return new HashCollisionNode(edit, current_hash, 2, new Object[] { current_key, current_val, key, val });
+            } else {
+                final int current_mask = mask(current_hash, shift);
+                final int mask = mask(hash, shift);
+
+                if (current_mask == mask) {
+                    final INode new_node = mergeTwoKeyValuePairs(edit, (shift + 5), current_hash, current_key, current_val, hash, key, val, hashed);
+                    return new BitmapIndexedNode(edit, 0, bitpos(current_hash, shift), new Object[] { new_node }, (hashed ? NO_HASHES : null));
+                } else {
+                    final int new_datamap = bitpos(current_hash, shift) | bitpos(hash, shift);
+
+                    if (!hashed) {
+                        if (current_mask < mask) {
+                            return new LeafNode(edit, new_datamap, current_key, current_val, key, val);
+                        } else {
+                            return new LeafNode(edit, new_datamap, key, val, current_key, current_val);
+                        }
+                    } else if (current_mask < mask) {
+                        return new BitmapIndexedNode(edit, new_datamap, 0, new Object[] { current_key, current_val, key, val }, new int[] { current_hash, hash });
+                    } else {
+                        return new BitmapIndexedNode(edit, new_datamap, 0, new Object[] { key, val, current_key, current_val }, new int[] { hash, current_hash });
+                    }
+                }
+            }
+        }
+
+        private INode copyAndMigrateToNode(AtomicReference<Object> edit, int bit, INode node) {
+            final Object[] dst = migrateToNode(this.array, 2, this.datamap, this.nodemap, bit, node);
+            return new BitmapIndexedNode(edit, (this.datamap ^ bit), (this.nodemap | bit), dst, removeHash(this.hashes, bitmapNodeIndex(this.datamap, bit)));
+        }
+
+        public INode assoc(AtomicReference<Object> edit, int shift, int hash, Object key, Object val, Box added_leaf) {
+            final int bit = bitpos(hash, shift);
+
+            if ((this.datamap & bit) != 0) {
+                final int idx = bitmapNodeIndex(this.datamap, bit);
+                final Object current_key = this.array[(2 * idx)];
+                if (((this.hashes == null) || (this.hashes[idx] == hash)) && Util.equiv(key, current_key)) {
+                    return copyAndSet(edit, ((2 * idx) + 1), val);
+                } else {
+                    final Object current_val = this.array[((2 * idx) + 1)];
+                    final INode new_node = mergeTwoKeyValuePairs(edit, (shift + 5), keyHash(idx), current_key, current_val, hash, key, val);
+                    added_leaf.val = added_leaf;
+
+                    return copyAndMigrateToNode(edit, bit, new_node);
+                }
+            } else if ((this.nodemap & bit) != 0) {
+                final int node_idx = nodeAt(bit);
+                final INode sub_node = (INode) this.array[node_idx];
+                final INode sub_node_new = sub_node.assoc(edit, (shift + 5), hash, key, val, added_leaf);
+
+                if (sub_node == sub_node_new) {
+                    return this;
+                } else {
+                    return copyAndSet(edit, node_idx, sub_node_new);
+                }
+            } else {
+                final int idx = (2 * bitmapNodeIndex(datamap, bit));
+                final Object[] new_array = insertSlots(this.array, idx, 2);
+                new_array[idx] = key;
+                new_array[(idx + 1)] = val;
+                added_leaf.val = added_leaf;
+
+                return create(edit, (this.datamap | bit), this.nodemap, new_array, insertHash(this.hashes, (idx / 2), hash));
+            }
+        }
+
+        public boolean singleKV() { return ((0 == this.nodemap) && (1 == Integer.bitCount(this.datamap))); }
+
+        private INode copyAndRemoveValue(AtomicReference<Object> edit, int bit) {
+            final int idx = bitmapNodeIndex(this.datamap, bit);
+            return create(edit, (this.datamap ^ bit), this.nodemap, removeSlots(this.array, (2 * idx), 2), removeHash(this.hashes, idx));
+        }
+
+        private INode copyAndMigrateToInline(AtomicReference<Object> edit, int bit, INode node, int node_hash) {
+            final int idx = bitmapNodeIndex(this.datamap, bit);
+            final Object[] entry = node.getArray();
+            final Object[] dst = migrateToInline(this.array, 2, this.datamap, this.nodemap, bit);
+            dst[(2 * idx)] = entry[0];
+            dst[((2 * idx) + 1)] = entry[1];
+
+            return create(edit, (this.datamap | bit), (this.nodemap ^ bit), dst, insertHash(this.hashes, idx, node_hash));
+        }
+
+        public INode without(AtomicReference<Object> edit, int shift, int hash, Object key, Box removed_leaf) {
+            final int bit = bitpos(hash, shift);
+
+            if ((this.datamap & bit) != 0) {
+                final int idx = bitmapNodeIndex(this.datamap, bit);;
+                if (((this.hashes == null) || (this.hashes[idx] == hash)) && Util.equiv(key, this.array[(2 * idx)])) {
+                    removed_leaf.val = removed_leaf;
+                    if (collapsesOnRemove(this.datamap, this.nodemap)) {
+                        final int new_datamap = collapsedDatamap(shift, this.datamap, bit, hash);
+                        final int other = (2 - (2 * idx));
+                        if (this.hashes == null) {
+                            return new LeafNode(edit, new_datamap, this.array[other], this.array[(other + 1)]);
+                        } else {
+                            return new BitmapIndexedNode(edit, new_datamap, 0, new Object[] { this.array[other], this.array[(other + 1)] }, new int[] { this.hashes[(other / 2)] });
+                        }
+                    } else {
+                        return copyAndRemoveValue(edit, bit);
+                    }
+                } else {
+                    return this;
+                }
+            }
+
+            if ((this.nodemap & bit) != 0) {
+                final int node_idx = nodeAt(bit);;
+                final INode sub_node = (INode) this.array[node_idx];
+                final INode sub_node_new = sub_node.without(edit, (shift + 5), hash, key, removed_leaf);
+
+                if (sub_node != sub_node_new) {
+                    if (sub_node_new.singleKV()) {
+                        if (onlySubNode(this.datamap, this.nodemap)) {
+                            return (this.hashes == null) ? sub_node_new : withHashes(sub_node_new, hash);
+                        } else {
+                            return copyAndMigrateToInline(edit, bit, sub_node_new, ((this.hashes == null) ? 0 : singleHash(sub_node_new, hash)));
+                        }
+                    } else {
+                        return copyAndSet(edit, node_idx, sub_node_new);
+                    }
+                }
+            }
+
+            return this;
+        }
+
+        /*
+         * A single entry LeafNode can only come from a collapsed HashCollisionNode,
+         * whose remaining key has the same hash as the removed one
+         */
+        private static int singleHash(INode node, int removed_hash) {
+            final int[] node_hashes = (node instanceof BitmapIndexedNode) ? ((BitmapIndexedNode) node).hashes : null;
+            return (node_hashes != null) ? node_hashes[0] : removed_hash;
+        }
+
+        private static INode withHashes(INode node, int removed_hash) {
+            if (node instanceof LeafNode) {
+                final LeafNode single = (LeafNode) node;
+                return new BitmapIndexedNode(single.edit, single.datamap, 0, single.getArray(), new int[] { removed_hash });
+            }
+            return node;
+        }
+
+        public Object find(int shift, int hash, Object key, Object not_found) {
+            final int bit = bitpos(hash, shift);
+
+            if ((this.datamap & bit) != 0) {
+                final int idx = bitmapNodeIndex(this.datamap, bit);
+                final Object current_key = this.array[(2 * idx)];
+
+                if (((this.hashes == null) || (this.hashes[idx] == hash)) && Util.equals(current_key, key)) {
+                    return this.array[((2 * idx) + 1)];
+                } else {
+                    return not_found;
+                }
+            } else if ((this.nodemap & bit) != 0) {
+                return ((INode) this.array[nodeAt(bit)]).find((shift + 5), hash, key, not_found);
+            } else {
+                return not_found;
+            }
+        }
+
+        public IMapEntry find(int shift, int hash, Object key) {
+            final int bit = bitpos(hash, shift);
+
+            if ((this.datamap & bit) != 0) {
+                final int idx = bitmapNodeIndex(this.datamap, bit);
+                final Object current_key = this.array[(2 * idx)];
+
+                if (((this.hashes == null) || (this.hashes[idx] == hash)) && Util.equals(current_key, key)) {
+                    return new MapEntry(current_key, this.array[((2 * idx) + 1)]);
+                } else {
+                    return null;
+                }
+            } else if ((this.nodemap & bit) != 0) {
+                return ((INode) this.array[nodeAt(bit)]).find((shift + 5), hash, key);
+            } else {
+                return null;
+            }
+        }
+
+        public boolean hasNodes() {
+            return this.nodemap != 0;
+        }
+
+        public boolean hasData() {
+            return this.datamap != 0;
+        }
+
+        public int nodeArity() {
+            return Integer.bitCount(this.nodemap);
+        }
+
+        public int dataArity() {
+            return Integer.bitCount(this.datamap);
+        }
+
+        public INode getNode(int node_idx) {
+            return (INode) this.array[(this.array.length - node_idx)];
+        }
+
+        public Object[] getArray() {
+            return this.array;
+        }
+
+        public NodeSeq nodeSeq() {
+            return NodeSeq.create(this);
+        }
+
+        public Object fold(final long n, long size, final IFn combinef, final IFn reducef, final IFn fjtask, final IFn fjfork, final IFn fjjoin){
+            final int data_arity = Integer.bitCount(this.datamap);
+            final int node_arity = Integer.bitCount(this.nodemap);
+
+            if ((size <= n) || (node_arity == 0)) {
+                return foldInline(this.array, data_arity, node_arity, combinef, reducef);
+            }
+
+            // entries are spread evenly by hash so every sub node gets an equal share of what is not inlined here
+            final long sub_size = Math.max(0, (size - data_arity)) / node_arity;
+            final Object[] array = this.array;
+            final List<Callable> tasks = new ArrayList<Callable>(node_arity + 1);
+
+            if (data_arity != 0) {
+                tasks.add(new Callable() {
+                    public Object call() throws Exception {
+                        return foldInline(array, data_arity, 0, combinef, reducef);
+                    }
+                });
+            }
+
+            for (int i = (2 * data_arity); i < array.length; i++) {
+                final INode node = (INode) array[i];
+                tasks.add(new Callable() {
+                    public Object call() throws Exception {
+                        return node.fold(n, sub_size, combinef, reducef, fjtask, fjfork, fjjoin);
+                    }
+                });
+            }
+
+            return foldTasks(tasks, combinef, fjtask, fjfork, fjjoin);
+        }
+
+        public Object kvreduce(IFn f, Object init) {
+            return NodeSeq.kvreduce(this.array, Integer.bitCount(this.datamap), Integer.bitCount(this.nodemap), f, init);
+        }
+
+        public boolean equiv(INode other, boolean equiv) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof BitmapIndexedNode)) {
+                return false;
+            }
+
+            final BitmapIndexedNode that = (BitmapIndexedNode) other;
+            if ((this.datamap != that.datamap) || (this.nodemap != that.nodemap)) {
+                return false;
+            }
+
+            final Object[] other_array = that.array;
+            final int data_len = (2 * Integer.bitCount(this.datamap));
+
+            for (int i = 0; i < data_len; i += 2) {
+                if (!Util.equiv(this.array[i], other_array[i]) || !valEquals(this.array[(i + 1)], other_array[(i + 1)], equiv)) {
+                    return false;
+                }
+            }
+
+            for (int i = data_len; i < this.array.length; i++) {
+                if (!((INode) this.array[i]).equiv((INode) other_array[i], equiv)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        public int hasheq() {
+            if (this._hasheq == 0) {
+                final int data_len = (2 * Integer.bitCount(this.datamap));
+                int hash = 0;
+
+                for (int i = 0; i < data_len; i += 2) {
+                    hash += hashEntry(keyHash(i / 2), this.array[(i + 1)]);
+                }
+                for (int i = data_len; i < this.array.length; i++) {
+                    hash += ((INode) this.array[i]).hasheq();
+                }
+
+                this._hasheq = hash;
+            }
+            return this._hasheq;
+        }
+
+        public long estimatedBytes() {
+            // datamap, nodemap, array, hashes, edit and _hasheq, NO_HASHES belonging to no node in particular
+            return (Stats.object(6) + Stats.array(this.array) + ((this.hashes == NO_HASHES) ? 0 : Stats.array(this.hashes)));
+        }
+    }
+
+    /*
+     * A node with one or two inline entries and no sub-nodes, keeping them in fields instead of an array.
+     * Most nodes under the first few levels of a large map have this shape, at 40 bytes rather than 72.
+     * Never hashed, hashed maps keep BitmapIndexedNode throughout.
+     */
+    final static class LeafNode implements INode {
+        final int datamap;
+        final Object key0;
+        Object val0;
+        final Object key1;
+        Object val1;
+        final AtomicReference<Object> edit;
+        int _hasheq;
+
+        LeafNode(AtomicReference<Object> edit, int datamap, Object key0, Object val0) {
+            this(edit, datamap, key0, val0, null, null);
+        }
+
+        /*
+         * @param key0 the key in the lower of the two datamap bits
+         */
+        LeafNode(AtomicReference<Object> edit, int datamap, Object key0, Object val0, Object key1, Object val1) {
+            this.edit = edit;
+            this.datamap = datamap;
+            this.key0 = key0;
+            this.val0 = val0;
+            this.key1 = key1;
+            this.val1 = val1;
+        }
+
+        private boolean isFirst(int bit) {
+            return ((this.datamap & (bit - 1)) == 0);
+        }
+
+        private INode copyAndSet(AtomicReference<Object> edit, boolean first, Object val) {
+            if (isAllowedToEdit(edit, this.edit)) {
+                if (first) {
+                    this.val0 = val;
+                } else {
+                    this.val1 = val;
+                }
+                return this;
+            } else if (first) {
+                return new LeafNode(edit, this.datamap, this.key0, val, this.key1, this.val1);
+            } else {
+                return new LeafNode(edit, this.datamap, this.key0, this.val0, this.key1, val);
+            }
+        }
+
+        public INode assoc(AtomicReference<Object> edit, int shift, int hash, Object key, Object val, Box added_leaf) {
+            final int bit = bitpos(hash, shift);
+
+            if ((this.datamap & bit) != 0) {
+                final boolean first = isFirst(bit);
+                final Object current_key = first ? this.key0 : this.key1;
+                if (Util.equiv(key, current_key)) {
+                    return copyAndSet(edit, first, val);
+                }
+
+                final Object current_val = first ? this.val0 : this.val1;
+                final INode new_node = BitmapIndexedNode.mergeTwoKeyValuePairs(edit, (shift + 5), Util.hasheq(current_key), current_key, current_val, hash, key, val, false);
+                added_leaf.val = added_leaf;
+
+                if (dataArity() == 1) {
+                    return new BitmapIndexedNode(edit, 0, bit, new Object[] { new_node });
+                } else if (first) {
+                    return new BitmapIndexedNode(edit, (this.datamap ^ bit), bit, new Object[] { this.key1, this.val1, new_node });
+                } else {
+                    return new BitmapIndexedNode(edit, (this.datamap ^ bit), bit, new Object[] { this.key0, this.val0, new_node });
+                }
+            }
+
+            added_leaf.val = added_leaf;
+            if (dataArity() == 1) {
+                if (isFirst(bit)) {
+                    return new LeafNode(edit, (this.datamap | bit), key, val, this.key0, this.val0);
+                } else {
+                    return new LeafNode(edit, (this.datamap | bit), this.key0, this.val0, key, val);
+                }
+            }
+
+            final Object[] array;
+            if (isFirst(bit)) {
+                array = new Object[] { key, val, this.key0, this.val0, this.key1, this.val1 };
+            } else if ((this.datamap & (bit - 1)) == Integer.lowestOneBit(this.datamap)) {
+                array = new Object[] { this.key0, this.val0, key, val, this.key1, this.val1 };
+            } else {
+                array = new Object[] { this.key0, this.val0, this.key1, this.val1, key, val };
+            }
+            return new BitmapIndexedNode(edit, (this.datamap | bit), 0, array);
+        }
+
+        public INode without(AtomicReference<Object> edit, int shift, int hash, Object key, Box removed_leaf) {
+            final int bit = bitpos(hash, shift);
+
+            if ((this.datamap & bit) != 0) {
+                final boolean first = isFirst(bit);
+                if (Util.equiv(key, (first ? this.key0 : this.key1))) {
+                    removed_leaf.val = removed_leaf;
+                    if (dataArity() == 1) {
+                        return BitmapIndexedNode.EMPTY;
+                    }
+
+                    final int new_datamap = collapsedDatamap(shift, this.datamap, bit, hash);
+                    if (first) {
+                        return new LeafNode(edit, new_datamap, this.key1, this.val1);
+                    } else {
+                        return new LeafNode(edit, new_datamap, this.key0, this.val0);
+                    }
+                }
+            }
+
+            return this;
+        }
+
+        public boolean singleKV() {
+            return (dataArity() == 1);
+        }
+
+        public Object find(int shift, int hash, Object key, Object not_found) {
+            final int bit = bitpos(hash, shift);
+
+            if ((this.datamap & bit) != 0) {
+                final boolean first = isFirst(bit);
+                if (Util.equals((first ? this.key0 : this.key1), key)) {
+                    return first ? this.val0 : this.val1;
+                }
+            }
+            return not_found;
+        }
+
+        public IMapEntry find(int shift, int hash, Object key) {
+            final int bit = bitpos(hash, shift);
+
+            if ((this.datamap & bit) != 0) {
+                final boolean first = isFirst(bit);
+                final Object current_key = first ? this.key0 : this.key1;
+                if (Util.equals(current_key, key)) {
+                    return new MapEntry(current_key, (first ? this.val0 : this.val1));
+                }
+            }
+            return null;
+        }
+
+        public boolean hasNodes() {
+            return false;
+        }
+
+        public boolean hasData() {
+            return true;
+        }
+
+        public int nodeArity() {
+            return 0;
+        }
+
+        public int dataArity() {
+            return Integer.bitCount(this.datamap);
+        }
+
+        public INode getNode(int node_idx) {
+            return null;
+        }
+
+        Object keyAt(int idx) {
+            return (idx == 0) ? this.key0 : this.key1;
+        }
+
+        Object valAt(int idx) {
+            return (idx == 0) ? this.val0 : this.val1;
+        }
+
+        /*
+         * A copy in the BitmapIndexedNode layout, for the callers that need an array of their own. The seq,
+         * cursor and spliterator read the fields instead.
+         */
+        public Object[] getArray() {
+            if (dataArity() == 1) {
+                return new Object[] { this.key0, this.val0 };
+            }
+            return new Object[] { this.key0, this.val0, this.key1, this.val1 };
         }
 
-        int nodeAt(final int bit) {
-            return this.array.length - 1 - bitmapNodeIndex(this.nodemap, bit);
+        public NodeSeq nodeSeq() {
+            return NodeSeq.of(this, null);
         }
 
-        BitmapIndexedNode(AtomicReference<Thread> edit,  int datamap, int nodemap, Object[] array) {
-            this.edit = edit;
-            this.datamap = datamap;
-            this.nodemap = nodemap;
-            this.array = array;
+        public Object fold(long n, long size, IFn combinef, IFn reducef, IFn fjtask, IFn fjfork, IFn fjjoin) {
+            final Object ret = kvreduce(reducef, combinef.invoke());
+            return RT.isReduced(ret) ? ((IDeref) ret).deref() : ret;
         }
 
-        private INode copyAndSet(AtomicReference<Thread> edit, int idx, Object val) {
-            if (isAllowedToEdit(edit, this.edit)) {
-                array[idx] = val;
-                return this;
-            } else {
-                final Object[] new_array = this.array.clone();
-                new_array[idx] = val;
-
-                return new BitmapIndexedNode(edit, datamap, nodemap, new_array);
+        public Object kvreduce(IFn f, Object init) {
+            init = f.invoke(init, this.key0, this.val0);
+            if ((dataArity() == 1) || RT.isReduced(init)) {
+                return init;
             }
+            return f.invoke(init, this.key1, this.val1);
         }
 
-        private INode mergeTwoKeyValuePairs(AtomicReference<Thread> edit, int shift, int current_hash, Object current_key, Object current_val, int hash, Object key, Object val) {
-            if ((32 < shift) && (current_hash == hash)) {
-                return new HashCollisionNode(edit, current_hash, 2, new Object[] { current_key, current_val, key, val });
-            } else {
-                final int current_mask = mask(current_hash, shift);
-                final int mask = mask(hash, shift);
+        public boolean equiv(INode other, boolean equiv) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof LeafNode)) {
+                return false;
+            }
 
-                if (current_mask == mask) {
-                    final INode new_node = mergeTwoKeyValuePairs(edit, (shift + 5), current_hash, current_key, current_val, hash, key, val);
-                    return new BitmapIndexedNode(edit, 0, bitpos(current_hash, shift), new Object[] { new_node } );
-                } else {
-                    final int new_datamap = bitpos(current_hash, shift) | bitpos(hash, shift);
+            final LeafNode that = (LeafNode) other;
+            if (this.datamap != that.datamap) {
+                return false;
+            }
+            if (!Util.equiv(this.key0, that.key0) || !valEquals(this.val0, that.val0, equiv)) {
+                return false;
+            }
+            return (dataArity() == 1) || (Util.equiv(this.key1, that.key1) && valEquals(this.val1, that.val1, equiv));
+        }
 
-                    if (current_mask < mask) {
-                        return new BitmapIndexedNode(edit, new_datamap, 0, new Object[] { current_key, current_val, key, val } );
-                    } else {
-                        return new BitmapIndexedNode(edit, new_datamap, 0, new Object[] { key, val, current_key, current_val } );
-                    }
+        public int hasheq() {
+            if (this._hasheq == 0) {
+                int hash = hashEntry(this.key0, this.val0);
+                if (dataArity() == 2) {
+                    hash += hashEntry(this.key1, this.val1);
                 }
+                this._hasheq = hash;
             }
+            return this._hasheq;
         }
 
-        private INode copyAndMigrateToNode(AtomicReference<Thread> edit, int bit, INode node) {
-            final int idx_old = (2 * bitmapNodeIndex(this.datamap, bit));
-            final int idx_new = (this.array.length - 2 - bitmapNodeIndex(this.nodemap, bit));
-            final Object[] dst = new Object[(this.array.length - 1)];
-
-            System.arraycopy(this.array, 0, dst, 0, idx_old);
-            System.arraycopy(this.array, (2 + idx_old), dst, idx_old, (idx_new - idx_old));
-            dst[idx_new] = node;
-            System.arraycopy(this.array, (2 + idx_new), dst, (idx_new + 1), (this.array.length - 2 - idx_new));
-
-            return new BitmapIndexedNode(edit, (this.datamap ^ bit), (this.nodemap | bit), dst);
+        public long estimatedBytes() {
+            // datamap, the four key and val fields, edit and _hasheq
+            return Stats.object(7);
         }
+    }
 
-        public INode assoc(AtomicReference<Thread> edit, int shift, int hash, Object key, Object val, Box added_leaf) {
-            final int bit = bitpos(hash, shift);
+    /*
+     * The root of a map of up to FLAT_THRESHOLD entries that is not hashed. The entries sit in one
+     * [key, val, ...] array in insertion order that is scanned like PersistentArrayMap's, so the hash
+     * passed in is never looked at. assoc promotes it to a trie past FLAT_THRESHOLD entries.
+     */
+    final static class FlatNode implements INode {
+        static final FlatNode EMPTY = new FlatNode(null, new Object[0]);
 
-            if ((this.datamap & bit) != 0) {
-                final int idx = bitmapNodeIndex(this.datamap, bit);
-                final Object current_key = this.array[(2 * idx)];
-                if (Util.equiv(key, current_key)) {
-                    return copyAndSet(edit, ((2 * idx) + 1), val);
-                } else {
-                    final Object current_val = this.array[((2 * idx) + 1)];
-                    final INode new_node = mergeTwoKeyValuePairs(edit, (shift + 5), Util.hasheq(current_key), current_key, current_val, hash, key, val);
-                    added_leaf.val = added_leaf;
+        Object[] array;
+        final AtomicReference<Object> edit;
+        int _hasheq;
 
-                    return copyAndMigrateToNode(edit, bit, new_node);
-                }
-            } else if ((this.nodemap & bit) != 0) {
-                final int node_idx = nodeAt(bit);
-                final INode sub_node = (INode) this.array[node_idx];
-                final INode sub_node_new = sub_node.assoc(edit, (shift + 5), hash, key, val, added_leaf);
+        FlatNode(AtomicReference<Object> edit, Object[] array) {
+            this.edit = edit;
+            this.array = array;
+        }
 
-                if (sub_node == sub_node_new) {
-                    return this;
-                } else {
-                    return copyAndSet(edit, node_idx, sub_node_new);
+        // the predicate is picked once per key, as PersistentArrayMap does; Util.equiv type-tests both sides on every call
+        private int indexOf(Object key) {
+            final Util.EquivPred ep = Util.equivPred(key);
+            for (int i = 0; i < this.array.length; i += 2) {
+                if (ep.equiv(key, this.array[i])) {
+                    return i;
                 }
-            } else {
-                final int n = this.array.length;
-                final int idx = (2 * bitmapNodeIndex(datamap, bit));
-                final Object[] new_array = new Object[(2 + n)];
-
-                System.arraycopy(this.array, 0, new_array, 0, idx);
-                new_array[idx] = key;
-                new_array[(idx + 1)] = val;
-                System.arraycopy(this.array, idx, new_array, (2 + idx), (n - idx));
-                added_leaf.val = added_leaf;
-
-                return new BitmapIndexedNode(edit, (this.datamap | bit), this.nodemap, new_array);
             }
+            return -1;
         }
 
-        public boolean singleKV() { return ((0 == this.nodemap) && (1 == Integer.bitCount(this.datamap))); }
-
-        private INode copyAndRemoveValue(AtomicReference<Thread> edit, int bit) {
-            final int idx = (2 * bitmapNodeIndex(this.datamap, bit));
-            final Object[] dst = new Object[(this.array.length - 2)];
-            System.arraycopy(this.array, 0, dst, 0, idx);
-            System.arraycopy(this.array, (idx + 2), dst, idx, (this.array.length - idx -2));
-
-            return new BitmapIndexedNode(edit, (this.datamap ^ bit), this.nodemap, dst);
+        // find compares keys with Util.equals, like BitmapIndexedNode.find
+        private int findIndex(Object key) {
+            for (int i = 0; i < this.array.length; i += 2) {
+                if (Util.equals(this.array[i], key)) {
+                    return i;
+                }
+            }
+            return -1;
         }
 
-        private INode copyAndMigrateToInline(AtomicReference<Thread> edit, int bit, INode node) {
-            final int idx_old = (this.array.length - 1 - bitmapNodeIndex(this.nodemap, bit));
-            final int idx_new = (2 * bitmapNodeIndex(this.datamap, bit));
-            final Object[] dst = new Object[(this.array.length + 1)];
-
-            System.arraycopy(this.array, 0, dst, 0, idx_new);
-            dst[idx_new] = node.getArray()[0];
-            dst[(idx_new + 1)] = node.getArray()[1];
-            System.arraycopy(this.array, idx_new, dst, (idx_new + 2), (idx_old - idx_new));
-            System.arraycopy(this.array, (idx_old + 1), dst, (idx_old + 2), (this.array.length - 1 - idx_old));
+        /*
+         * The entries and the new one built into a trie the way LeanMap.build does, without duplicates to remove
+         */
+        private INode promote(Object key, Object val) {
+            final int n = (dataArity() + 1);
+            final Object[] keys = new Object[n];
+            final Object[] vals = new Object[n];
+            final int[] hashes = new int[n];
+            final long[] sorted = new long[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = (i < (n - 1)) ? this.array[(2 * i)] : key;
+                vals[i] = (i < (n - 1)) ? this.array[((2 * i) + 1)] : val;
+                hashes[i] = Util.hasheq(keys[i]);
+                sorted[i] = trieOrder(hashes[i], i);
+            }
+            Arrays.sort(sorted);
 
-            return new BitmapIndexedNode(edit, (this.datamap | bit), (this.nodemap ^ bit), dst);
+            final int[] order = new int[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = (int) sorted[i];
+            }
+            return buildNode(0, keys, vals, hashes, order, 0, n, false);
         }
 
-        public INode without(AtomicReference<Thread> edit, int shift, int hash, Object key, Box removed_leaf) {
-            final int bit = bitpos(hash, shift);
-
-            if ((this.datamap & bit) != 0) {
-                final int idx = bitmapNodeIndex(this.datamap, bit);;
-                if (Util.equiv(key, this.array[(2 * idx)])) {
-                    removed_leaf.val = removed_leaf;
-                    if ((Integer.bitCount(this.datamap) == 2) && (this.nodemap == 0)) {
-                        final int new_datamap = (shift == 0) ? (this.datamap ^ bit) : bitpos(hash, 0);
-                        if (idx == 0) {
-                            return new BitmapIndexedNode(edit, new_datamap, 0, new Object[] { this.array[2], this.array[3] } );
-                        } else {
-                            return new BitmapIndexedNode(edit, new_datamap, 0, new Object[] { this.array[0], this.array[1] } );
-                        }
-                    } else {
-                        return copyAndRemoveValue(edit, bit);
-                    }
-                } else {
+        public INode assoc(AtomicReference<Object> edit, int shift, int hash, Object key, Object val, Box added_leaf) {
+            final int idx = indexOf(key);
+            if (idx != -1) {
+                if (this.array[(idx + 1)] == val) {
+                    return this;
+                }
+                if (isAllowedToEdit(edit, this.edit)) {
+                    this.array[(idx + 1)] = val;
                     return this;
                 }
+                final Object[] new_array = this.array.clone();
+                new_array[(idx + 1)] = val;
+                return new FlatNode(edit, new_array);
             }
 
-            if ((this.nodemap & bit) != 0) {
-                final int node_idx = nodeAt(bit);;
-                final INode sub_node = (INode) this.array[node_idx];
-                final INode sub_node_new = sub_node.without(edit, (shift + 5), hash, key, removed_leaf);
-
-                if (sub_node != sub_node_new) {
-                    if (sub_node_new.singleKV()) {
-                        if ((this.datamap == 0) && (Integer.bitCount(this.nodemap) == 1)) {
-                            return sub_node_new;
-                        } else {
-                            return copyAndMigrateToInline(edit, bit, sub_node_new);
-                        }
-                    } else {
-                        return copyAndSet(edit, node_idx, sub_node_new);
-                    }
-                }
+            added_leaf.val = added_leaf;
+            if (dataArity() == FLAT_THRESHOLD) {
+                return promote(key, val);
             }
 
-            return this;
+            final Object[] new_array = Arrays.copyOf(this.array, (this.array.length + 2));
+            new_array[this.array.length] = key;
+            new_array[(this.array.length + 1)] = val;
+            if (isAllowedToEdit(edit, this.edit)) {
+                this.array = new_array;
+                return this;
+            }
+            return new FlatNode(edit, new_array);
         }
 
-        public Object find(int shift, int hash, Object key, Object not_found) {
-            final int bit = bitpos(hash, shift);
-
-            if ((this.datamap & bit) != 0) {
-                final int idx = bitmapNodeIndex(this.datamap, bit);
-                final Object current_key = this.array[(2 * idx)];
+        public INode without(AtomicReference<Object> edit, int shift, int hash, Object key, Box removed_leaf) {
+            final int idx = indexOf(key);
+            if (idx == -1) {
+                return this;
+            }
 
-                if (Util.equals(current_key, key)) {
-                    return this.array[((2 * idx) + 1)];
-                } else {
-                    return not_found;
-                }
-            } else if ((this.nodemap & bit) != 0) {
-                return ((INode) this.array[nodeAt(bit)]).find((shift + 5), hash, key, not_found);
-            } else {
-                return not_found;
+            removed_leaf.val = removed_leaf;
+            if (this.array.length == 2) {
+                return EMPTY;
+            }
+            final Object[] new_array = removePair(this.array, (idx / 2));
+            if (isAllowedToEdit(edit, this.edit)) {
+                this.array = new_array;
+                return this;
             }
+            return new FlatNode(edit, new_array);
         }
 
-        public IMapEntry find(int shift, int hash, Object key) {
-            final int bit = bitpos(hash, shift);
+        public boolean singleKV() {
+            return (this.array.length == 2);
+        }
 
-            if ((this.datamap & bit) != 0) {
-                final int idx = bitmapNodeIndex(this.datamap, bit);
-                final Object current_key = this.array[(2 * idx)];
+        public Object find(int shift, int hash, Object key, Object not_found) {
+            final int idx = findIndex(key);
+            return (idx == -1) ? not_found : this.array[(idx + 1)];
+        }
 
-                if (Util.equals(current_key, key)) {
-                    return new MapEntry(current_key, this.array[((2 * bit) + 1)]);
-                } else {
-                    return null;
-                }
-            } else if ((this.nodemap & bit) != 0) {
-                return ((INode) this.array[nodeAt(bit)]).find((shift + 5), hash, key);
-            } else {
-                return null;
-            }
+        public IMapEntry find(int shift, int hash, Object key) {
+            final int idx = findIndex(key);
+            return (idx == -1) ? null : new MapEntry(this.array[idx], this.array[(idx + 1)]);
         }
 
         public boolean hasNodes() {
-            return this.nodemap != 0;
+            return false;
         }
 
         public boolean hasData() {
-            return this.datamap != 0;
+            return (this.array.length != 0);
         }
 
         public int nodeArity() {
-            return Integer.bitCount(this.nodemap);
+            return 0;
         }
 
         public int dataArity() {
-            return Integer.bitCount(this.datamap);
+            return (this.array.length / 2);
         }
 
         public INode getNode(int node_idx) {
-            return (INode) this.array[(this.array.length - node_idx)];
+            return null;
         }
 
         public Object[] getArray() {
@@ -852,40 +3130,167 @@ public class LeanMap extends APersistentMap implements IEditableCollection, IObj
         }
 
         public NodeSeq nodeSeq() {
-            INode[] nodes = new INode[7];
-            int[] cursor_lengths = new int[] {0, 0, 0, 0, 0, 0, 0};
-            nodes[0] = this;
-            cursor_lengths[0] = this.nodeArity();
-            if (this.datamap == 0) {
-                return createINodeSeq(this.array, 0, nodes, cursor_lengths, 0, 0);
-            } else {
-                return new NodeSeq(null, this.array, 0, nodes, cursor_lengths, 0, (this.dataArity() - 1));
+            if (this.array.length == 0) {
+                return null;
             }
+            return new NodeSeq(null, this.array, this, 0, null);
         }
 
-        public Object fold(IFn combinef, IFn reducef, IFn fjtask, IFn fjfork, IFn fjjoin){
-            return NodeSeq.kvreduce(this.array, Integer.bitCount(this.datamap), Integer.bitCount(this.nodemap), reducef, combinef.invoke());
+        public Object fold(long n, long size, IFn combinef, IFn reducef, IFn fjtask, IFn fjfork, IFn fjjoin) {
+            return foldInline(this.array, dataArity(), 0, combinef, reducef);
         }
 
         public Object kvreduce(IFn f, Object init) {
-            return NodeSeq.kvreduce(this.array, Integer.bitCount(this.datamap), Integer.bitCount(this.nodemap), f, init);
+            return NodeSeq.kvreduce(this.array, dataArity(), 0, f, init);
+        }
+
+        /*
+         * Insertion order decides the layout, so look each key up
+         */
+        public boolean equiv(INode other, boolean equiv) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof FlatNode)) {
+                return false;
+            }
+
+            final FlatNode that = (FlatNode) other;
+            if (this.array.length != that.array.length) {
+                return false;
+            }
+
+            for (int i = 0; i < this.array.length; i += 2) {
+                final int idx = that.indexOf(this.array[i]);
+                if ((idx == -1) || !valEquals(this.array[(i + 1)], that.array[(idx + 1)], equiv)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public int hasheq() {
+            if (this._hasheq == 0) {
+                int hash = 0;
+                for (int i = 0; i < this.array.length; i += 2) {
+                    hash += hashEntry(this.array[i], this.array[(i + 1)]);
+                }
+                this._hasheq = hash;
+            }
+            return this._hasheq;
+        }
+
+        public long estimatedBytes() {
+            // array, edit and _hasheq
+            return (Stats.object(3) + Stats.array(this.array));
         }
     }
 
+    /*
+     * Past COLLISION_SORT_THRESHOLD entries, a node whose keys are all Strings, all Keywords or all Symbols keeps them
+     * sorted, like java.util.HashMap treeifies its bins. Keys made to collide, which user supplied strings easily are,
+     * then cost a binary search rather than a scan of every one of them. Those classes have a compareTo that agrees
+     * with Util.equiv and are never equiv to a key of another class.
+     */
     final static class HashCollisionNode implements INode {
+        static final int COLLISION_SORT_THRESHOLD = 8;
+
         final int hash;
         int count;
         Object[] array;
-        final AtomicReference<Thread> edit;
+        boolean sorted;
+        final AtomicReference<Object> edit;
+        int _hasheq;
 
-        HashCollisionNode(AtomicReference<Thread> edit, int hash, int count, Object... array){
+        HashCollisionNode(AtomicReference<Object> edit, int hash, int count, Object... array){
+            this(edit, hash, count, array, false);
+        }
+
+        HashCollisionNode(AtomicReference<Object> edit, int hash, int count, Object[] array, boolean sorted){
             this.edit = edit;
             this.hash = hash;
             this.count = count;
             this.array = array;
+            this.sorted = sorted;
+        }
+
+        /*
+         * A node of the count entries in array, sorted in place when it qualifies
+         */
+        static HashCollisionNode create(AtomicReference<Object> edit, int hash, int count, Object[] array) {
+            final boolean sorted = ((count > COLLISION_SORT_THRESHOLD) && sortable(array, count, array[0]));
+            if (sorted) {
+                sortEntries(array, count);
+            }
+            return new HashCollisionNode(edit, hash, count, array, sorted);
+        }
+
+        private static boolean sortable(Object[] array, int count, Object key) {
+            if (!((key instanceof String) || (key instanceof Keyword) || (key instanceof Symbol))) {
+                return false;
+            }
+            for (int i = 0; i < (2 * count); i += 2) {
+                if ((array[i] == null) || (array[i].getClass() != key.getClass())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // sortable keys are all of one class, so each is Comparable to the others
+        @SuppressWarnings("unchecked")
+        static int compareKeys(Object a, Object b) {
+            return ((Comparable<Object>) a).compareTo(b);
+        }
+
+        private static void sortEntries(Object[] array, int count) {
+            final Object[][] entries = new Object[count][];
+            for (int i = 0; i < count; i++) {
+                entries[i] = new Object[] { array[(2 * i)], array[((2 * i) + 1)] };
+            }
+            Arrays.sort(entries, new Comparator<Object[]>() {
+                public int compare(Object[] a, Object[] b) {
+                    return compareKeys(a[0], b[0]);
+                }
+            });
+            for (int i = 0; i < count; i++) {
+                array[(2 * i)] = entries[i][0];
+                array[((2 * i) + 1)] = entries[i][1];
+            }
+        }
+
+        /*
+         * @return the entry index of key in a sorted node, or (-(insertion point) - 1) like Arrays.binarySearch
+         */
+        private int search(Object key) {
+            int low = 0;
+            int high = (this.count - 1);
+            while (low <= high) {
+                final int mid = ((low + high) >>> 1);
+                final int cmp = compareKeys(this.array[(2 * mid)], key);
+                if (cmp < 0) {
+                    low = (mid + 1);
+                } else if (cmp > 0) {
+                    high = (mid - 1);
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        private boolean sameClass(Object key) {
+            return (key != null) && (key.getClass() == this.array[0].getClass());
         }
 
         public int findIndex(Object key){
+            if(this.sorted) {
+                if(!sameClass(key)) {
+                    return -1;
+                }
+                final int idx = search(key);
+                return (idx < 0) ? -1 : (2 * idx);
+            }
             for(int i = 0; i < 2*count; i+=2)
             {
                 if(Util.equiv(key, array[i])) {
@@ -895,15 +3300,45 @@ public class LeanMap extends APersistentMap implements IEditableCollection, IObj
             return -1;
         }
 
-        private INode mutableAssoc(int idx, Object key, Object val, Box addedLeaf) {
-            if(idx == -1) {
-                Object[] new_array = new Object[(array.length + 2)];
+        /*
+         * Whether the node stays or becomes sorted once key is added to it
+         */
+        private boolean sortedWith(Object key) {
+            if (this.sorted) {
+                return sameClass(key);
+            }
+            return ((this.count + 1) > COLLISION_SORT_THRESHOLD) && sortable(this.array, this.count, key);
+        }
+
+        /*
+         * The entries with key and val added, in sorted order when sorted
+         */
+        private Object[] arrayWith(Object key, Object val, boolean sorted) {
+            final Object[] new_array = new Object[(array.length + 2)];
+            if (this.sorted && sorted) {
+                final int at = (2 * (-search(key) - 1));
+                System.arraycopy(array, 0, new_array, 0, at);
+                new_array[at] = key;
+                new_array[(at + 1)] = val;
+                System.arraycopy(array, at, new_array, (at + 2), (array.length - at));
+            } else {
                 System.arraycopy(array, 0, new_array, 0, array.length);
                 new_array[array.length] = key;
                 new_array[(array.length + 1)] = val;
+                if (sorted) {
+                    sortEntries(new_array, (this.count + 1));
+                }
+            }
+            return new_array;
+        }
+
+        private INode mutableAssoc(int idx, Object key, Object val, Box addedLeaf) {
+            if(idx == -1) {
+                final boolean sorted = sortedWith(key);
                 addedLeaf.val = addedLeaf;
 
-                this.array = new_array;
+                this.array = arrayWith(key, val, sorted);
+                this.sorted = sorted;
                 this.count = this.count + 1;
             } else {
                 if(this.array[(idx + 1)] != val) {
@@ -916,13 +3351,10 @@ public class LeanMap extends APersistentMap implements IEditableCollection, IObj
 
         private INode persistentAssoc(int idx, Object key, Object val, Box addedLeaf) {
             if(idx == -1) {
-                Object[] new_array = new Object[(array.length + 2)];
-                System.arraycopy(array, 0, new_array, 0, array.length);
-                new_array[array.length] = key;
-                new_array[(array.length + 1)] = val;
+                final boolean sorted = sortedWith(key);
                 addedLeaf.val = addedLeaf;
 
-                return new HashCollisionNode(this.edit, this.hash, (this.count + 1), new_array);
+                return new HashCollisionNode(this.edit, this.hash, (this.count + 1), arrayWith(key, val, sorted), sorted);
             } else {
                 if(this.array[(idx + 1)] == val) {
                     return this;
@@ -930,16 +3362,15 @@ public class LeanMap extends APersistentMap implements IEditableCollection, IObj
                     Object[] new_array = this.array.clone();
                     new_array[(idx + 1)] = val;
 
-                    return new HashCollisionNode(this.edit, this.hash, (this.count + 1), new_array);
+                    return new HashCollisionNode(this.edit, this.hash, this.count, new_array, this.sorted);
                 }
             }
         }
 
-        public INode assoc(AtomicReference<Thread> edit, int shift, int hash, Object key, Object val, Box addedLeaf){
+        public INode assoc(AtomicReference<Object> edit, int shift, int hash, Object key, Object val, Box addedLeaf){
             int idx = findIndex(key);
             if (isAllowedToEdit(edit, this.edit)) {
-                HashCollisionNode new_node = (edit == this.edit) ? this : new HashCollisionNode(edit, this.hash, this.count, this.array.clone());
-                return new_node.mutableAssoc(idx, key, val, addedLeaf);
+                return mutableAssoc(idx, key, val, addedLeaf);
             } else {
                 return this.persistentAssoc(idx, key, val, addedLeaf);
             }
@@ -947,7 +3378,7 @@ public class LeanMap extends APersistentMap implements IEditableCollection, IObj
 
         public boolean singleKV() { return (1 == this.count); }
 
-        public INode without(AtomicReference<Thread> edit, int shift, int hash, Object key, Box removed_leaf) {
+        public INode without(AtomicReference<Object> edit, int shift, int hash, Object key, Box removed_leaf) {
             final int idx = findIndex(key);
             if (idx != -1) {
                 removed_leaf.val = removed_leaf;
@@ -955,10 +3386,11 @@ public class LeanMap extends APersistentMap implements IEditableCollection, IObj
                     case 1:
                         return BitmapIndexedNode.EMPTY;
                     case 2:
-                        final int hash_idx = (Util.equiv(key, this.array[0])) ? 2 : 0;
+                        final int hash_idx = (idx == 0) ? 2 : 0;
                         return BitmapIndexedNode.EMPTY.assoc(edit, 0, hash, this.array[hash_idx], this.array[(hash_idx + 1)], removed_leaf);
                     default:
-                        return new HashCollisionNode(edit, hash, (this.count - 1), removePair(this.array, (idx / 2)));
+                        // removing an entry keeps the rest in order
+                        return new HashCollisionNode(edit, hash, (this.count - 1), removePair(this.array, (idx / 2)), this.sorted);
                 }
             }
             return this;
@@ -1014,12 +3446,54 @@ public class LeanMap extends APersistentMap implements IEditableCollection, IObj
             throw new UnsupportedOperationException();
         }
 
-        public Object fold(IFn combinef, IFn reducef, IFn fjtask, IFn fjfork, IFn fjjoin){
-            return NodeSeq.kvreduce(this.array, this.count, 0, reducef, combinef.invoke());
+        public Object fold(long n, long size, IFn combinef, IFn reducef, IFn fjtask, IFn fjfork, IFn fjjoin){
+            return foldInline(this.array, this.count, 0, combinef, reducef);
         }
 
         public Object kvreduce(IFn f, Object init) {
             return NodeSeq.kvreduce(this.array, this.count, 0, f, init);
         }
+
+        public boolean equiv(INode other, boolean equiv) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof HashCollisionNode)) {
+                return false;
+            }
+
+            final HashCollisionNode that = (HashCollisionNode) other;
+            if ((this.hash != that.hash) || (this.count != that.count)) {
+                return false;
+            }
+
+            // insertion order decides the layout of a collision node, so look each key up
+            for (int i = 0; i < (2 * this.count); i += 2) {
+                final int idx = that.findIndex(this.array[i]);
+                if ((idx == -1) || !valEquals(this.array[(i + 1)], that.array[(idx + 1)], equiv)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        public int hasheq() {
+            if (this._hasheq == 0) {
+                int hash = 0;
+
+                for (int i = 0; i < (2 * this.count); i += 2) {
+                    hash += hashEntry(this.array[i], this.array[(i + 1)]);
+                }
+
+                this._hasheq = hash;
+            }
+            return this._hasheq;
+        }
+
+        public long estimatedBytes() {
+            // hash, count, array, sorted, edit and _hasheq, the boolean rounding up the same as an int would
+            return (Stats.object(6) + Stats.array(this.array));
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,287 @@
+package com.bendyworks;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import clojure.lang.Keyword;
+import clojure.lang.Symbol;
+
+import com.bendyworks.LeanMap.BitmapIndexedNode;
+import com.bendyworks.LeanMap.FlatNode;
+import com.bendyworks.LeanMap.HashCollisionNode;
+import com.bendyworks.LeanMap.INode;
+import com.bendyworks.LeanMap.LeafNode;
+
+/*
+ * A versioned binary format for LeanMap that writes the trie as it is, the datamap, nodemap and stored hashes of
+ * every node, with keys and vals through a Codec. Reading builds the same nodes straight from the stream,
+ * without hashing a key or inserting an entry, so the keys a codec reads must hash as the ones it wrote did.
+ * Numbers, strings, keywords, symbols, booleans and nil do in every JVM, objects hashed by identity do not.
+ *
+ *   map  := MAGIC version:byte hashed:byte count:int node
+ *   node := NULL | FLAT n:int (key val)* | LEAF datamap:int n:byte (key val)*
+ *         | BITMAP datamap:int nodemap:int hash:int* (key val)* node*
+ *         | COLLISION hash:int sorted:byte n:int (key val)*
+ *
+ * A BITMAP node has one hash per inline entry when the map is hashed and none otherwise, and its sub nodes
+ * in the order of its array.
+ */
+public final class LeanMapFormat {
+
+    private LeanMapFormat() {}
+
+    static final int MAGIC = 0x4c4d4150; // "LMAP"
+    static final int VERSION = 1;
+
+    static final byte NULL = 0;
+    static final byte FLAT = 1;
+    static final byte LEAF = 2;
+    static final byte BITMAP = 3;
+    static final byte COLLISION = 4;
+
+    /*
+     * Writes and reads the keys and vals of a map. read must return a key that hashes as the one written did.
+     */
+    public interface Codec {
+        void write(DataOutput out, Object o) throws IOException;
+
+        Object read(DataInput in) throws IOException;
+    }
+
+    public static void write(LeanMap map, DataOutput out) throws IOException {
+        write(map, out, DEFAULT);
+    }
+
+    public static void write(LeanMap map, DataOutput out, Codec codec) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(map.isHashed() ? 1 : 0);
+        out.writeInt(map.count);
+        writeNode(map.root, out, codec);
+    }
+
+    public static LeanMap read(DataInput in) throws IOException {
+        return read(in, DEFAULT);
+    }
+
+    public static LeanMap read(DataInput in, Codec codec) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a LeanMap");
+        }
+        final int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported LeanMap format version " + version);
+        }
+        final boolean hashed = (in.readByte() != 0);
+        final int count = in.readInt();
+        final INode root = readNode(in, codec, hashed);
+        if (count == 0) {
+            return hashed ? LeanMap.EMPTY_HASHED : LeanMap.EMPTY;
+        }
+        return new LeanMap(count, root);
+    }
+
+    private static void writeEntries(Object[] array, int n, DataOutput out, Codec codec) throws IOException {
+        for (int i = 0; i < (2 * n); i++) {
+            codec.write(out, array[i]);
+        }
+    }
+
+    private static Object[] readEntries(int n, int nodes, DataInput in, Codec codec) throws IOException {
+        final Object[] array = new Object[((2 * n) + nodes)];
+        for (int i = 0; i < (2 * n); i++) {
+            array[i] = codec.read(in);
+        }
+        return array;
+    }
+
+    private static void writeNode(INode node, DataOutput out, Codec codec) throws IOException {
+        if (node == null) {
+            out.writeByte(NULL);
+        } else if (node instanceof FlatNode) {
+            out.writeByte(FLAT);
+            out.writeInt(node.dataArity());
+            writeEntries(node.getArray(), node.dataArity(), out, codec);
+        } else if (node instanceof LeafNode) {
+            final LeafNode leaf = (LeafNode) node;
+            out.writeByte(LEAF);
+            out.writeInt(leaf.datamap);
+            out.writeByte(leaf.dataArity());
+            writeEntries(leaf.getArray(), leaf.dataArity(), out, codec);
+        } else if (node instanceof BitmapIndexedNode) {
+            final BitmapIndexedNode bin = (BitmapIndexedNode) node;
+            final int data_arity = bin.dataArity();
+            out.writeByte(BITMAP);
+            out.writeInt(bin.datamap);
+            out.writeInt(bin.nodemap);
+            if (bin.hashes != null) {
+                for (int i = 0; i < data_arity; i++) {
+                    out.writeInt(bin.hashes[i]);
+                }
+            }
+            writeEntries(bin.array, data_arity, out, codec);
+            for (int i = (2 * data_arity); i < bin.array.length; i++) {
+                writeNode((INode) bin.array[i], out, codec);
+            }
+        } else {
+            final HashCollisionNode collisions = (HashCollisionNode) node;
+            out.writeByte(COLLISION);
+            out.writeInt(collisions.hash);
+            out.writeByte(collisions.sorted ? 1 : 0);
+            out.writeInt(collisions.count);
+            writeEntries(collisions.array, collisions.count, out, codec);
+        }
+    }
+
+    private static INode readNode(DataInput in, Codec codec, boolean hashed) throws IOException {
+        final byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case FLAT: {
+                final int n = in.readInt();
+                return new FlatNode(null, readEntries(n, 0, in, codec));
+            }
+            case LEAF: {
+                final int datamap = in.readInt();
+                final int n = in.readByte();
+                final Object[] array = readEntries(n, 0, in, codec);
+                if (n == 1) {
+                    return new LeafNode(null, datamap, array[0], array[1]);
+                }
+                return new LeafNode(null, datamap, array[0], array[1], array[2], array[3]);
+            }
+            case BITMAP: {
+                final int datamap = in.readInt();
+                final int nodemap = in.readInt();
+                final int data_arity = Integer.bitCount(datamap);
+                int[] hashes = null;
+                if (hashed) {
+                    hashes = (data_arity == 0) ? BitmapIndexedNode.NO_HASHES : new int[data_arity];
+                    for (int i = 0; i < data_arity; i++) {
+                        hashes[i] = in.readInt();
+                    }
+                }
+                final Object[] array = readEntries(data_arity, Integer.bitCount(nodemap), in, codec);
+                for (int i = (2 * data_arity); i < array.length; i++) {
+                    array[i] = readNode(in, codec, hashed);
+                }
+                if ((datamap == 0) && (nodemap == 0)) {
+                    return hashed ? BitmapIndexedNode.EMPTY_HASHED : BitmapIndexedNode.EMPTY;
+                }
+                return new BitmapIndexedNode(null, datamap, nodemap, array, hashes);
+            }
+            case COLLISION: {
+                final int hash = in.readInt();
+                final boolean sorted = (in.readByte() != 0);
+                final int n = in.readInt();
+                return new HashCollisionNode(null, hash, n, readEntries(n, 0, in, codec), sorted);
+            }
+            default:
+                throw new IOException("Unknown LeanMap node tag " + tag);
+        }
+    }
+
+    static final byte NIL = 0;
+    static final byte TRUE = 1;
+    static final byte FALSE = 2;
+    static final byte LONG = 3;
+    static final byte DOUBLE = 4;
+    static final byte STRING = 5;
+    static final byte KEYWORD = 6;
+    static final byte SYMBOL = 7;
+    static final byte INTEGER = 8;
+    static final byte MAP = 9;
+
+    /*
+     * Tags nil, booleans, longs, integers, doubles, strings, keywords, symbols and nested LeanMaps, all of which
+     * hash the same in every JVM, and throws IllegalArgumentException for anything else
+     */
+    public static final Codec DEFAULT = new Codec() {
+        public void write(DataOutput out, Object o) throws IOException {
+            if (o == null) {
+                out.writeByte(NIL);
+            } else if (o instanceof Boolean) {
+                out.writeByte(((Boolean) o) ? TRUE : FALSE);
+            } else if (o instanceof Long) {
+                out.writeByte(LONG);
+                out.writeLong((Long) o);
+            } else if (o instanceof Integer) {
+                out.writeByte(INTEGER);
+                out.writeInt((Integer) o);
+            } else if (o instanceof Double) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) o);
+            } else if (o instanceof String) {
+                out.writeByte(STRING);
+                writeString(out, (String) o);
+            } else if (o instanceof Keyword) {
+                out.writeByte(KEYWORD);
+                writeName(out, ((Keyword) o).sym);
+            } else if (o instanceof Symbol) {
+                out.writeByte(SYMBOL);
+                writeName(out, (Symbol) o);
+            } else if (o instanceof LeanMap) {
+                out.writeByte(MAP);
+                LeanMapFormat.write((LeanMap) o, out, this);
+            } else {
+                throw new IllegalArgumentException("No encoding for " + o.getClass().getName());
+            }
+        }
+
+        public Object read(DataInput in) throws IOException {
+            final byte tag = in.readByte();
+            switch (tag) {
+                case NIL:
+                    return null;
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case LONG:
+                    return in.readLong();
+                case INTEGER:
+                    return in.readInt();
+                case DOUBLE:
+                    return in.readDouble();
+                case STRING:
+                    return readString(in);
+                case KEYWORD:
+                    return Keyword.intern(readName(in));
+                case SYMBOL:
+                    return readName(in);
+                case MAP:
+                    return LeanMapFormat.read(in, this);
+                default:
+                    throw new IOException("Unknown value tag " + tag);
+            }
+        }
+    };
+
+    // length prefixed UTF-8, writeUTF stops at 64k bytes
+    static void writeString(DataOutput out, String s) throws IOException {
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // a null namespace is written as an empty string, which is not a valid one
+    static void writeName(DataOutput out, Symbol sym) throws IOException {
+        writeString(out, ((sym.getNamespace() == null) ? "" : sym.getNamespace()));
+        writeString(out, sym.getName());
+    }
+
+    static Symbol readName(DataInput in) throws IOException {
+        final String ns = readString(in);
+        final String name = readString(in);
+        return Symbol.intern((ns.length() == 0) ? null : ns, name);
+    }
+}
@@ -0,0 +1,644 @@
+package com.bendyworks;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import clojure.lang.APersistentMap;
+import clojure.lang.BigInt;
+import clojure.lang.Box;
+import clojure.lang.IDeref;
+import clojure.lang.IFn;
+import clojure.lang.IKVReduce;
+import clojure.lang.IMapEntry;
+import clojure.lang.IMapIterable;
+import clojure.lang.IObj;
+import clojure.lang.IPersistentCollection;
+import clojure.lang.IPersistentMap;
+import clojure.lang.ISeq;
+import clojure.lang.MapEntry;
+import clojure.lang.Murmur3;
+import clojure.lang.RT;
+import clojure.lang.Util;
+
+import static com.bendyworks.LeanMap.bitpos;
+import static com.bendyworks.LeanMap.collapsedDatamap;
+import static com.bendyworks.LeanMap.collapsesOnRemove;
+import static com.bendyworks.LeanMap.index;
+import static com.bendyworks.LeanMap.insertSlots;
+import static com.bendyworks.LeanMap.mask;
+import static com.bendyworks.LeanMap.migrateToInline;
+import static com.bendyworks.LeanMap.migrateToNode;
+import static com.bendyworks.LeanMap.onlySubNode;
+import static com.bendyworks.LeanMap.removeSlots;
+
+/*
+ * A LeanMap keyed by longs. Every node keeps its inline keys unboxed in a long[], next to an Object[] of
+ * their values followed by the sub-nodes, with the datamap/nodemap layout and compaction on delete of
+ * LeanMap.BitmapIndexedNode. Keys hash like boxed Longs, so the trie has the shape a LeanMap would.
+ *
+ * Boxed keys work too as long as they are integers that fit a long, anything else is never found.
+ * There is no int variant: Clojure hashes an int as the long of the same value, so int keys widen to the long
+ * entry points and land where they would as longs, and an int[] key store would only save 4 bytes a key.
+ */
+public class LongLeanMap extends APersistentMap implements IObj, IMapIterable, IKVReduce {
+
+    final int count;
+    final INode root;
+    final IPersistentMap _meta;
+    int _hasheq;
+
+    LongLeanMap(IPersistentMap meta, int count, INode root){
+        this._meta = meta;
+        this.count = count;
+        this.root = root;
+    }
+
+    final public static LongLeanMap EMPTY = new LongLeanMap(null, 0, null);
+    final private static Object NOT_FOUND = new Object();
+
+    static int hash(long key) {
+        return Murmur3.hashLong(key);
+    }
+
+    /*
+     * Whether Util.equiv could find the key equal to a long
+     */
+    static boolean isLongKey(Object key) {
+        return (key instanceof Long) || (key instanceof Integer) || (key instanceof Short) || (key instanceof Byte)
+                || ((key instanceof BigInt) && (((BigInt) key).bipart == null));
+    }
+
+    static long longKey(Object key) {
+        return (key instanceof BigInt) ? ((BigInt) key).lpart : ((Number) key).longValue();
+    }
+
+    private static long checkedKey(Object key) {
+        if(!isLongKey(key)) {
+            throw new IllegalArgumentException("Key is not an integer that fits a long: " + key);
+        }
+        return longKey(key);
+    }
+
+    public Object valAt(long key, Object not_found){
+        return (this.root == null) ? not_found : this.root.find(0, hash(key), key, not_found);
+    }
+
+    public Object valAt(long key){
+        return valAt(key, null);
+    }
+
+    public Object get(long key){
+        return valAt(key, null);
+    }
+
+    public boolean containsKey(long key){
+        return valAt(key, NOT_FOUND) != NOT_FOUND;
+    }
+
+    public Object valAt(Object key, Object not_found){
+        return isLongKey(key) ? valAt(longKey(key), not_found) : not_found;
+    }
+
+    public Object valAt(Object key){
+        return valAt(key, null);
+    }
+
+    public boolean containsKey(Object key){
+        return isLongKey(key) && containsKey(longKey(key));
+    }
+
+    public IMapEntry entryAt(Object key){
+        if(!isLongKey(key)) {
+            return null;
+        }
+        final long k = longKey(key);
+        final Object val = valAt(k, NOT_FOUND);
+        return (val == NOT_FOUND) ? null : MapEntry.create(k, val);
+    }
+
+    public LongLeanMap assoc(long key, Object val){
+        final Box added_leaf = LeanMap.acquireLeafFlag();
+        try {
+            final INode new_root = ((this.root == null) ? BitmapIndexedNode.EMPTY : this.root).assoc(0, hash(key), key, val, added_leaf);
+            if(new_root == this.root) {
+                return this;
+            }
+            return new LongLeanMap(meta(), ((added_leaf.val == null) ? this.count : (this.count + 1)), new_root);
+        } finally {
+            LeanMap.releaseLeafFlag(added_leaf);
+        }
+    }
+
+    public IPersistentMap assoc(Object key, Object val){
+        return assoc(checkedKey(key), val);
+    }
+
+    public IPersistentMap assocEx(Object key, Object val){
+        if(containsKey(key)) {
+            throw Util.runtimeException("Key already present");
+        }
+        return assoc(key, val);
+    }
+
+    public LongLeanMap without(long key){
+        if(this.root == null) {
+            return this;
+        }
+        final Box removed_leaf = LeanMap.acquireLeafFlag();
+        try {
+            final INode new_root = this.root.without(0, hash(key), key, removed_leaf);
+            if(new_root == this.root) {
+                return this;
+            }
+            return new LongLeanMap(meta(), (this.count - 1), new_root);
+        } finally {
+            LeanMap.releaseLeafFlag(removed_leaf);
+        }
+    }
+
+    public IPersistentMap without(Object key){
+        return isLongKey(key) ? without(longKey(key)) : this;
+    }
+
+    static final IFn MAKE_ENTRY = LeanMap.MAKE_ENTRY;
+    static final IFn MAKE_KEY = LeanMap.MAKE_KEY;
+    static final IFn MAKE_VAL = LeanMap.MAKE_VAL;
+
+    private Iterator iterator(IFn f){
+        return (this.count == 0) ? LeanMap.EMPTY_ITER : new NodeIter(this.root, f);
+    }
+
+    public Iterator iterator(){
+        return iterator(MAKE_ENTRY);
+    }
+
+    public Iterator keyIterator(){
+        return iterator(MAKE_KEY);
+    }
+
+    public Iterator valIterator(){
+        return iterator(MAKE_VAL);
+    }
+
+    public ISeq seq(){
+        return (this.count == 0) ? null : RT.chunkIteratorSeq(iterator());
+    }
+
+    public Object kvreduce(IFn f, Object init){
+        if(RT.isReduced(init)) {
+            return ((IDeref) init).deref();
+        }
+        if(this.root != null) {
+            init = this.root.kvreduce(f, init);
+            if(RT.isReduced(init)) {
+                return ((IDeref) init).deref();
+            }
+        }
+        return init;
+    }
+
+    public int hasheq(){
+        if(this._hasheq == 0) {
+            this._hasheq = Murmur3.mixCollHash(((this.root == null) ? 0 : this.root.hasheq()), this.count);
+        }
+        return this._hasheq;
+    }
+
+    public int count(){
+        return this.count;
+    }
+
+    public IPersistentMap meta(){
+        return this._meta;
+    }
+
+    public LongLeanMap withMeta(IPersistentMap meta){
+        return new LongLeanMap(meta, this.count, this.root);
+    }
+
+    public IPersistentCollection empty(){
+        return EMPTY.withMeta(meta());
+    }
+
+    interface INode extends Serializable {
+        INode assoc(int shift, int hash, long key, Object val, Box added_leaf);
+
+        INode without(int shift, int hash, long key, Box removed_leaf);
+
+        Object find(int shift, int hash, long key, Object not_found);
+
+        boolean singleKV();
+
+        int dataArity();
+
+        int nodeArity();
+
+        long keyAt(int idx);
+
+        Object valAt(int idx);
+
+        INode getNode(int node_idx);
+
+        Object kvreduce(IFn f, Object init);
+
+        int hasheq();
+    }
+
+    /*
+     * keys holds the inline keys in datamap order and array their values in the same order, followed by
+     * the sub-nodes in reverse nodemap order, the layout of LeanMap's with one slot per entry, whose array
+     * and compaction helpers it uses. Neither array is mutated once the node is built, so copies that leave
+     * the keys alone share them.
+     */
+    final static class BitmapIndexedNode implements INode {
+        static final long[] NO_KEYS = new long[0];
+        static final BitmapIndexedNode EMPTY = new BitmapIndexedNode(0, 0, NO_KEYS, new Object[0]);
+
+        final int datamap;
+        final int nodemap;
+        final long[] keys;
+        final Object[] array;
+        int _hasheq;
+
+        BitmapIndexedNode(int datamap, int nodemap, long[] keys, Object[] array) {
+            this.datamap = datamap;
+            this.nodemap = nodemap;
+            this.keys = keys;
+            this.array = array;
+        }
+
+        int nodeAt(int bit) {
+            return this.array.length - 1 - index(this.nodemap, bit);
+        }
+
+        private static long[] insertKey(long[] keys, int idx, long key) {
+            final long[] dst = new long[(keys.length + 1)];
+            System.arraycopy(keys, 0, dst, 0, idx);
+            dst[idx] = key;
+            System.arraycopy(keys, idx, dst, (idx + 1), (keys.length - idx));
+            return dst;
+        }
+
+        private static long[] removeKey(long[] keys, int idx) {
+            if (keys.length == 1) {
+                return NO_KEYS;
+            }
+            final long[] dst = new long[(keys.length - 1)];
+            System.arraycopy(keys, 0, dst, 0, idx);
+            System.arraycopy(keys, (idx + 1), dst, idx, (keys.length - 1 - idx));
+            return dst;
+        }
+
+        private INode copyAndSet(int idx, Object val) {
+            final Object[] new_array = this.array.clone();
+            new_array[idx] = val;
+            return new BitmapIndexedNode(this.datamap, this.nodemap, this.keys, new_array);
+        }
+
+        private static INode mergeTwoKeyValuePairs(int shift, int current_hash, long current_key, Object current_val, int hash, long key, Object val) {
+            if ((32 < shift) && (current_hash == hash)) {
+                return new HashCollisionNode(current_hash, new long[] { current_key, key }, new Object[] { current_val, val });
+            } else {
+                final int current_mask = mask(current_hash, shift);
+                final int mask = mask(hash, shift);
+
+                if (current_mask == mask) {
+                    final INode new_node = mergeTwoKeyValuePairs((shift + 5), current_hash, current_key, current_val, hash, key, val);
+                    return new BitmapIndexedNode(0, bitpos(current_hash, shift), NO_KEYS, new Object[] { new_node });
+                } else {
+                    final int new_datamap = bitpos(current_hash, shift) | bitpos(hash, shift);
+
+                    if (current_mask < mask) {
+                        return new BitmapIndexedNode(new_datamap, 0, new long[] { current_key, key }, new Object[] { current_val, val });
+                    } else {
+                        return new BitmapIndexedNode(new_datamap, 0, new long[] { key, current_key }, new Object[] { val, current_val });
+                    }
+                }
+            }
+        }
+
+        private INode copyAndMigrateToNode(int bit, INode node) {
+            final Object[] dst = migrateToNode(this.array, 1, this.datamap, this.nodemap, bit, node);
+            return new BitmapIndexedNode((this.datamap ^ bit), (this.nodemap | bit), removeKey(this.keys, index(this.datamap, bit)), dst);
+        }
+
+        public INode assoc(int shift, int hash, long key, Object val, Box added_leaf) {
+            final int bit = bitpos(hash, shift);
+
+            if ((this.datamap & bit) != 0) {
+                final int idx = index(this.datamap, bit);
+                final long current_key = this.keys[idx];
+                if (current_key == key) {
+                    return (this.array[idx] == val) ? this : copyAndSet(idx, val);
+                } else {
+                    final INode new_node = mergeTwoKeyValuePairs((shift + 5), LongLeanMap.hash(current_key), current_key, this.array[idx], hash, key, val);
+                    added_leaf.val = added_leaf;
+
+                    return copyAndMigrateToNode(bit, new_node);
+                }
+            } else if ((this.nodemap & bit) != 0) {
+                final int node_idx = nodeAt(bit);
+                final INode sub_node = (INode) this.array[node_idx];
+                final INode sub_node_new = sub_node.assoc((shift + 5), hash, key, val, added_leaf);
+
+                return (sub_node == sub_node_new) ? this : copyAndSet(node_idx, sub_node_new);
+            } else {
+                final int idx = index(this.datamap, bit);
+                final Object[] new_array = insertSlots(this.array, idx, 1);
+                new_array[idx] = val;
+                added_leaf.val = added_leaf;
+
+                return new BitmapIndexedNode((this.datamap | bit), this.nodemap, insertKey(this.keys, idx, key), new_array);
+            }
+        }
+
+        public boolean singleKV() {
+            return ((0 == this.nodemap) && (1 == Integer.bitCount(this.datamap)));
+        }
+
+        private INode copyAndRemoveValue(int bit) {
+            final int idx = index(this.datamap, bit);
+            return new BitmapIndexedNode((this.datamap ^ bit), this.nodemap, removeKey(this.keys, idx), removeSlots(this.array, idx, 1));
+        }
+
+        private INode copyAndMigrateToInline(int bit, INode node) {
+            final int idx = index(this.datamap, bit);
+            final Object[] dst = migrateToInline(this.array, 1, this.datamap, this.nodemap, bit);
+            dst[idx] = node.valAt(0);
+
+            return new BitmapIndexedNode((this.datamap | bit), (this.nodemap ^ bit), insertKey(this.keys, idx, node.keyAt(0)), dst);
+        }
+
+        public INode without(int shift, int hash, long key, Box removed_leaf) {
+            final int bit = bitpos(hash, shift);
+
+            if ((this.datamap & bit) != 0) {
+                final int idx = index(this.datamap, bit);
+                if (this.keys[idx] != key) {
+                    return this;
+                }
+                removed_leaf.val = removed_leaf;
+                if (collapsesOnRemove(this.datamap, this.nodemap)) {
+                    final int new_datamap = collapsedDatamap(shift, this.datamap, bit, hash);
+                    final int keep = (idx == 0) ? 1 : 0;
+                    return new BitmapIndexedNode(new_datamap, 0, new long[] { this.keys[keep] }, new Object[] { this.array[keep] });
+                } else {
+                    return copyAndRemoveValue(bit);
+                }
+            }
+
+            if ((this.nodemap & bit) != 0) {
+                final int node_idx = nodeAt(bit);
+                final INode sub_node = (INode) this.array[node_idx];
+                final INode sub_node_new = sub_node.without((shift + 5), hash, key, removed_leaf);
+
+                if (sub_node != sub_node_new) {
+                    if (sub_node_new.singleKV()) {
+                        if (onlySubNode(this.datamap, this.nodemap)) {
+                            return sub_node_new;
+                        } else {
+                            return copyAndMigrateToInline(bit, sub_node_new);
+                        }
+                    } else {
+                        return copyAndSet(node_idx, sub_node_new);
+                    }
+                }
+            }
+
+            return this;
+        }
+
+        public Object find(int shift, int hash, long key, Object not_found) {
+            final int bit = bitpos(hash, shift);
+
+            if ((this.datamap & bit) != 0) {
+                final int idx = index(this.datamap, bit);
+                return (this.keys[idx] == key) ? this.array[idx] : not_found;
+            } else if ((this.nodemap & bit) != 0) {
+                return ((INode) this.array[nodeAt(bit)]).find((shift + 5), hash, key, not_found);
+            } else {
+                return not_found;
+            }
+        }
+
+        public int dataArity() {
+            return this.keys.length;
+        }
+
+        public int nodeArity() {
+            return Integer.bitCount(this.nodemap);
+        }
+
+        public long keyAt(int idx) {
+            return this.keys[idx];
+        }
+
+        public Object valAt(int idx) {
+            return this.array[idx];
+        }
+
+        public INode getNode(int node_idx) {
+            return (INode) this.array[(this.keys.length + node_idx)];
+        }
+
+        public Object kvreduce(IFn f, Object init) {
+            for (int i = 0; i < this.keys.length; i++) {
+                init = f.invoke(init, this.keys[i], this.array[i]);
+                if (RT.isReduced(init)) {
+                    return init;
+                }
+            }
+            for (int i = this.keys.length; i < this.array.length; i++) {
+                init = ((INode) this.array[i]).kvreduce(f, init);
+                if (RT.isReduced(init)) {
+                    return init;
+                }
+            }
+            return init;
+        }
+
+        public int hasheq() {
+            if (this._hasheq == 0) {
+                int hash = 0;
+                for (int i = 0; i < this.keys.length; i++) {
+                    hash += LeanMap.hashEntry(LongLeanMap.hash(this.keys[i]), this.array[i]);
+                }
+                for (int i = this.keys.length; i < this.array.length; i++) {
+                    hash += ((INode) this.array[i]).hasheq();
+                }
+                this._hasheq = hash;
+            }
+            return this._hasheq;
+        }
+    }
+
+    final static class HashCollisionNode implements INode {
+        final int hash;
+        final long[] keys;
+        final Object[] vals;
+        int _hasheq;
+
+        HashCollisionNode(int hash, long[] keys, Object[] vals) {
+            this.hash = hash;
+            this.keys = keys;
+            this.vals = vals;
+        }
+
+        private int findIndex(long key) {
+            for (int i = 0; i < this.keys.length; i++) {
+                if (this.keys[i] == key) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        public INode assoc(int shift, int hash, long key, Object val, Box added_leaf) {
+            final int idx = findIndex(key);
+            if (idx == -1) {
+                final int n = this.keys.length;
+                final long[] new_keys = new long[(n + 1)];
+                final Object[] new_vals = new Object[(n + 1)];
+                System.arraycopy(this.keys, 0, new_keys, 0, n);
+                System.arraycopy(this.vals, 0, new_vals, 0, n);
+                new_keys[n] = key;
+                new_vals[n] = val;
+                added_leaf.val = added_leaf;
+
+                return new HashCollisionNode(this.hash, new_keys, new_vals);
+            } else if (this.vals[idx] == val) {
+                return this;
+            } else {
+                final Object[] new_vals = this.vals.clone();
+                new_vals[idx] = val;
+                return new HashCollisionNode(this.hash, this.keys, new_vals);
+            }
+        }
+
+        public INode without(int shift, int hash, long key, Box removed_leaf) {
+            final int idx = findIndex(key);
+            if (idx == -1) {
+                return this;
+            }
+            removed_leaf.val = removed_leaf;
+            final int n = this.keys.length;
+            if (n == 2) {
+                final int keep = (idx == 0) ? 1 : 0;
+                return new BitmapIndexedNode(bitpos(this.hash, 0), 0, new long[] { this.keys[keep] }, new Object[] { this.vals[keep] });
+            }
+            final long[] new_keys = new long[(n - 1)];
+            final Object[] new_vals = new Object[(n - 1)];
+            System.arraycopy(this.keys, 0, new_keys, 0, idx);
+            System.arraycopy(this.keys, (idx + 1), new_keys, idx, (n - 1 - idx));
+            System.arraycopy(this.vals, 0, new_vals, 0, idx);
+            System.arraycopy(this.vals, (idx + 1), new_vals, idx, (n - 1 - idx));
+            return new HashCollisionNode(this.hash, new_keys, new_vals);
+        }
+
+        public Object find(int shift, int hash, long key, Object not_found) {
+            final int idx = findIndex(key);
+            return (idx == -1) ? not_found : this.vals[idx];
+        }
+
+        public boolean singleKV() {
+            return (1 == this.keys.length);
+        }
+
+        public int dataArity() {
+            return this.keys.length;
+        }
+
+        public int nodeArity() {
+            return 0;
+        }
+
+        public long keyAt(int idx) {
+            return this.keys[idx];
+        }
+
+        public Object valAt(int idx) {
+            return this.vals[idx];
+        }
+
+        public INode getNode(int node_idx) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        public Object kvreduce(IFn f, Object init) {
+            for (int i = 0; i < this.keys.length; i++) {
+                init = f.invoke(init, this.keys[i], this.vals[i]);
+                if (RT.isReduced(init)) {
+                    return init;
+                }
+            }
+            return init;
+        }
+
+        public int hasheq() {
+            if (this._hasheq == 0) {
+                int hash = 0;
+                for (int i = 0; i < this.keys.length; i++) {
+                    hash += LeanMap.hashEntry(this.hash, this.vals[i]);
+                }
+                this._hasheq = hash;
+            }
+            return this._hasheq;
+        }
+    }
+
+    /*
+     * Depth first over the trie, a frame per level: the node and how far into its entries and then sub-nodes it is
+     */
+    static final class NodeIter implements Iterator {
+        private final INode[] nodes = new INode[8];
+        private final int[] cursors = new int[8];
+        private final IFn f;
+        private int depth;
+        private INode next_node;
+        private int next_idx;
+
+        NodeIter(INode root, IFn f) {
+            this.f = f;
+            this.nodes[0] = root;
+            advance();
+        }
+
+        private void advance() {
+            while (this.depth >= 0) {
+                final INode node = this.nodes[this.depth];
+                final int cursor = this.cursors[this.depth]++;
+                if (cursor < node.dataArity()) {
+                    this.next_node = node;
+                    this.next_idx = cursor;
+                    return;
+                } else if (cursor < (node.dataArity() + node.nodeArity())) {
+                    this.depth++;
+                    this.nodes[this.depth] = node.getNode(cursor - node.dataArity());
+                    this.cursors[this.depth] = 0;
+                } else {
+                    this.nodes[this.depth] = null;
+                    this.depth--;
+                }
+            }
+            this.next_node = null;
+        }
+
+        public boolean hasNext() {
+            return this.next_node != null;
+        }
+
+        public Object next() {
+            if (this.next_node == null) {
+                throw new NoSuchElementException();
+            }
+            final Object ret = this.f.invoke(this.next_node.keyAt(this.next_idx), this.next_node.valAt(this.next_idx));
+            advance();
+            return ret;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
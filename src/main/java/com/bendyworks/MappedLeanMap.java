@@ -0,0 +1,638 @@
+package com.bendyworks;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import clojure.lang.APersistentMap;
+import clojure.lang.IDeref;
+import clojure.lang.IFn;
+import clojure.lang.IKVReduce;
+import clojure.lang.IMapEntry;
+import clojure.lang.IMapIterable;
+import clojure.lang.IPersistentCollection;
+import clojure.lang.IPersistentMap;
+import clojure.lang.ISeq;
+import clojure.lang.MapEntry;
+import clojure.lang.RT;
+import clojure.lang.Util;
+
+import com.bendyworks.LeanMap.BitmapIndexedNode;
+import com.bendyworks.LeanMap.FlatNode;
+import com.bendyworks.LeanMap.HashCollisionNode;
+import com.bendyworks.LeanMap.INode;
+import com.bendyworks.LeanMap.LeafNode;
+
+/*
+ * A read-only map over a trie image in a file, mapped with FileChannel.map and read where it lies. A lookup
+ * follows the bitmaps and offsets of the image down to its key and decodes that key and its val, nothing else,
+ * so opening a map is a constant time, its heap does not grow with the map, and processes mapping the same
+ * file share its pages. An optional cache keeps the decoded entries of recently visited nodes.
+ *
+ * The image is written from a LeanMap by write, each node after its entries and sub nodes so that it can point
+ * at them by offset:
+ *
+ *   image := MAGIC version:byte hashed:byte (entries | node)* count:int root:int MAGIC
+ *   node  := FLAT n:int entry:int*
+ *          | LEAF datamap:int n:byte entry:int*
+ *          | BITMAP datamap:int nodemap:int hash:int* entry:int* child:int*
+ *          | COLLISION hash:int sorted:byte n:int entry:int*
+ *
+ * entry holds the offsets of each key and val, written with a LeanMapFormat.Codec, and child the offsets of the
+ * sub nodes in bit order. Keys are found by the hashes they had when written, as with LeanMapFormat. Offsets are
+ * ints, so an image is at most 2 GB.
+ */
+public final class MappedLeanMap extends APersistentMap implements IKVReduce, IMapIterable {
+
+    static final int MAGIC = 0x4c4d4149; // "LMAI"
+    static final int VERSION = 1;
+    static final int HEADER = 6;
+    static final int TRAILER = 12;
+
+    final private static Object NOT_FOUND = new Object();
+
+    final ByteBuffer buffer;
+    final LeanMapFormat.Codec codec;
+    final boolean hashed;
+    final int count;
+    // offset of the root node, -1 for an empty map
+    final int root;
+    // decoded entries by node offset, direct mapped, null without a cache
+    final Decoded[] cache;
+
+    MappedLeanMap(ByteBuffer buffer, LeanMapFormat.Codec codec, int cache_size) throws IOException {
+        final int limit = buffer.limit();
+        if ((limit < (HEADER + TRAILER)) || (buffer.getInt(0) != MAGIC) || (buffer.getInt((limit - 4)) != MAGIC)) {
+            throw new IOException("Not a LeanMap image");
+        }
+        final int version = (buffer.get(4) & 0xff);
+        if (version != VERSION) {
+            throw new IOException("Unsupported LeanMap image version " + version);
+        }
+        this.buffer = buffer;
+        this.codec = codec;
+        this.hashed = (buffer.get(5) != 0);
+        this.count = buffer.getInt((limit - TRAILER));
+        this.root = buffer.getInt((limit - TRAILER + 4));
+        this.cache = (cache_size > 0) ? new Decoded[Integer.highestOneBit(((2 * cache_size) - 1))] : null;
+    }
+
+    public static MappedLeanMap open(Path file) throws IOException {
+        return open(file, LeanMapFormat.DEFAULT, 0);
+    }
+
+    /*
+     * @param cache_size the number of nodes whose decoded entries are kept, rounded up to a power of two, 0 for none
+     */
+    public static MappedLeanMap open(Path file, LeanMapFormat.Codec codec, int cache_size) throws IOException {
+        final ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("LeanMap image over 2 GB: " + file);
+            }
+            // the mapping outlives the channel
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return new MappedLeanMap(buffer, codec, cache_size);
+    }
+
+    public static void write(LeanMap map, Path file) throws IOException {
+        write(map, file, LeanMapFormat.DEFAULT);
+    }
+
+    public static void write(LeanMap map, Path file, LeanMapFormat.Codec codec) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            write(map, out, codec);
+        }
+    }
+
+    /*
+     * Writes the image of map, offsets counted from where out is, so a file has to hold only the image to be opened
+     */
+    public static void write(LeanMap map, OutputStream out, LeanMapFormat.Codec codec) throws IOException {
+        final DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeByte(map.isHashed() ? 1 : 0);
+        final int root = (map.count == 0) ? -1 : writeNode(map.root, data, codec);
+        data.writeInt(map.count);
+        data.writeInt(root);
+        data.writeInt(MAGIC);
+        data.flush();
+    }
+
+    // DataOutputStream.size stops at Integer.MAX_VALUE
+    private static int offset(DataOutputStream out) throws IOException {
+        final int offset = out.size();
+        if (offset == Integer.MAX_VALUE) {
+            throw new IOException("LeanMap image over 2 GB");
+        }
+        return offset;
+    }
+
+    private static int writeNode(INode node, DataOutputStream out, LeanMapFormat.Codec codec) throws IOException {
+        final int n = node.dataArity();
+        final Object[] array = node.getArray();
+        final int[] entries = new int[(2 * n)];
+        for (int i = 0; i < (2 * n); i++) {
+            entries[i] = offset(out);
+            codec.write(out, array[i]);
+        }
+        int[] children = null;
+        if (node instanceof BitmapIndexedNode) {
+            // array holds the sub nodes in reverse bit order
+            children = new int[node.nodeArity()];
+            for (int j = 0; j < children.length; j++) {
+                children[j] = writeNode((INode) array[(array.length - 1 - j)], out, codec);
+            }
+        }
+
+        final int offset = offset(out);
+        if (node instanceof FlatNode) {
+            out.writeByte(LeanMapFormat.FLAT);
+            out.writeInt(n);
+        } else if (node instanceof LeafNode) {
+            out.writeByte(LeanMapFormat.LEAF);
+            out.writeInt(((LeafNode) node).datamap);
+            out.writeByte(n);
+        } else if (node instanceof BitmapIndexedNode) {
+            final BitmapIndexedNode bin = (BitmapIndexedNode) node;
+            out.writeByte(LeanMapFormat.BITMAP);
+            out.writeInt(bin.datamap);
+            out.writeInt(bin.nodemap);
+            if (bin.hashes != null) {
+                for (int i = 0; i < n; i++) {
+                    out.writeInt(bin.hashes[i]);
+                }
+            }
+        } else {
+            final HashCollisionNode collisions = (HashCollisionNode) node;
+            out.writeByte(LeanMapFormat.COLLISION);
+            out.writeInt(collisions.hash);
+            out.writeByte(collisions.sorted ? 1 : 0);
+            out.writeInt(n);
+        }
+        for (int i = 0; i < entries.length; i++) {
+            out.writeInt(entries[i]);
+        }
+        if (children != null) {
+            for (int j = 0; j < children.length; j++) {
+                out.writeInt(children[j]);
+            }
+        }
+        return offset;
+    }
+
+    // the layout of a node at offset node: its entry count and where its entry offsets start
+
+    private int arity(int node) {
+        switch (this.buffer.get(node)) {
+            case LeanMapFormat.FLAT:
+                return this.buffer.getInt((node + 1));
+            case LeanMapFormat.LEAF:
+                return this.buffer.get((node + 5));
+            case LeanMapFormat.BITMAP:
+                return Integer.bitCount(this.buffer.getInt((node + 1)));
+            default:
+                return this.buffer.getInt((node + 6));
+        }
+    }
+
+    private int entries(int node, int n) {
+        switch (this.buffer.get(node)) {
+            case LeanMapFormat.FLAT:
+                return (node + 5);
+            case LeanMapFormat.LEAF:
+                return (node + 6);
+            case LeanMapFormat.BITMAP:
+                return this.hashed ? (node + 9 + (4 * n)) : (node + 9);
+            default:
+                return (node + 10);
+        }
+    }
+
+    /*
+     * Key i / 2 of the node when i is even, its val when i is odd
+     */
+    private Object entry(int node, int entries, int n, int i) {
+        if (this.cache != null) {
+            return decoded(node, entries, n)[i];
+        }
+        return decode(this.buffer.getInt((entries + (4 * i))));
+    }
+
+    private Object decode(int offset) {
+        try {
+            return this.codec.read(new BufferInput(this.buffer, offset));
+        } catch (IOException e) {
+            throw Util.sneakyThrow(e);
+        }
+    }
+
+    static final class Decoded {
+        final int node;
+        final Object[] entries;
+
+        Decoded(int node, Object[] entries) {
+            this.node = node;
+            this.entries = entries;
+        }
+    }
+
+    // readers race to fill a slot, which is fine as a Decoded is immutable and any of them will do
+    private Object[] decoded(int node, int entries, int n) {
+        final int slot = ((node * 0x9E3779B9) >>> 16) & (this.cache.length - 1);
+        final Decoded cached = this.cache[slot];
+        if ((cached != null) && (cached.node == node)) {
+            return cached.entries;
+        }
+        final Object[] decoded = new Object[(2 * n)];
+        for (int i = 0; i < decoded.length; i++) {
+            decoded[i] = decode(this.buffer.getInt((entries + (4 * i))));
+        }
+        this.cache[slot] = new Decoded(node, decoded);
+        return decoded;
+    }
+
+    /*
+     * The val of key, or its entry when entry is set, following the node classes' own find
+     */
+    private Object find(Object key, Object not_found, boolean entry) {
+        if (this.root < 0) {
+            return not_found;
+        }
+        // like LeanMap.hash, a flat root needs no hash
+        final int hash = (this.buffer.get(this.root) == LeanMapFormat.FLAT) ? 0 : Util.hasheq(key);
+        int node = this.root;
+        int shift = 0;
+        while (true) {
+            final int n = arity(node);
+            final int entries = entries(node, n);
+            switch (this.buffer.get(node)) {
+                case LeanMapFormat.FLAT: {
+                    final Util.EquivPred ep = Util.equivPred(key);
+                    for (int i = 0; i < n; i++) {
+                        if (ep.equiv(key, entry(node, entries, n, (2 * i)))) {
+                            return found(node, entries, n, i, entry);
+                        }
+                    }
+                    return not_found;
+                }
+                case LeanMapFormat.LEAF: {
+                    final int datamap = this.buffer.getInt((node + 1));
+                    final int bit = (1 << LeanMap.mask(hash, shift));
+                    if ((datamap & bit) != 0) {
+                        final int idx = Integer.bitCount((datamap & (bit - 1)));
+                        if (Util.equals(entry(node, entries, n, (2 * idx)), key)) {
+                            return found(node, entries, n, idx, entry);
+                        }
+                    }
+                    return not_found;
+                }
+                case LeanMapFormat.BITMAP: {
+                    final int datamap = this.buffer.getInt((node + 1));
+                    final int nodemap = this.buffer.getInt((node + 5));
+                    final int bit = (1 << LeanMap.mask(hash, shift));
+                    if ((datamap & bit) != 0) {
+                        final int idx = Integer.bitCount((datamap & (bit - 1)));
+                        if ((!this.hashed || (this.buffer.getInt((node + 9 + (4 * idx))) == hash))
+                                && Util.equals(entry(node, entries, n, (2 * idx)), key)) {
+                            return found(node, entries, n, idx, entry);
+                        }
+                        return not_found;
+                    } else if ((nodemap & bit) != 0) {
+                        node = this.buffer.getInt((entries + (8 * n) + (4 * Integer.bitCount((nodemap & (bit - 1))))));
+                        shift += 5;
+                        continue;
+                    }
+                    return not_found;
+                }
+                default: {
+                    if (this.buffer.getInt((node + 1)) != hash) {
+                        return not_found;
+                    }
+                    for (int i = 0; i < n; i++) {
+                        if (Util.equiv(key, entry(node, entries, n, (2 * i)))) {
+                            return found(node, entries, n, i, entry);
+                        }
+                    }
+                    return not_found;
+                }
+            }
+        }
+    }
+
+    private Object found(int node, int entries, int n, int idx, boolean entry) {
+        final Object val = entry(node, entries, n, ((2 * idx) + 1));
+        return entry ? MapEntry.create(entry(node, entries, n, (2 * idx)), val) : val;
+    }
+
+    public Object valAt(Object key, Object not_found) {
+        return find(key, not_found, false);
+    }
+
+    public Object valAt(Object key) {
+        return find(key, null, false);
+    }
+
+    public boolean containsKey(Object key) {
+        return (find(key, NOT_FOUND, false) != NOT_FOUND);
+    }
+
+    public IMapEntry entryAt(Object key) {
+        return (IMapEntry) find(key, null, true);
+    }
+
+    public int count() {
+        return this.count;
+    }
+
+    public boolean isHashed() {
+        return this.hashed;
+    }
+
+    public Object kvreduce(IFn f, Object init) {
+        if (RT.isReduced(init)) {
+            return ((IDeref) init).deref();
+        }
+        if (this.root >= 0) {
+            init = kvreduce(this.root, f, init);
+            if (RT.isReduced(init)) {
+                return ((IDeref) init).deref();
+            }
+        }
+        return init;
+    }
+
+    // entries before sub nodes, and sub nodes from the highest bit down, the order of a LeanMap's seq
+    private Object kvreduce(int node, IFn f, Object init) {
+        final int n = arity(node);
+        final int entries = entries(node, n);
+        for (int i = 0; i < n; i++) {
+            init = f.invoke(init, entry(node, entries, n, (2 * i)), entry(node, entries, n, ((2 * i) + 1)));
+            if (RT.isReduced(init)) {
+                return init;
+            }
+        }
+        if (this.buffer.get(node) == LeanMapFormat.BITMAP) {
+            final int children = (entries + (8 * n));
+            for (int j = (Integer.bitCount(this.buffer.getInt((node + 5))) - 1); j >= 0; j--) {
+                init = kvreduce(this.buffer.getInt((children + (4 * j))), f, init);
+                if (RT.isReduced(init)) {
+                    return init;
+                }
+            }
+        }
+        return init;
+    }
+
+    static final int ENTRIES = 0;
+    static final int KEYS = 1;
+    static final int VALS = 2;
+
+    /*
+     * Walks the image depth first in kvreduce's order, the nodes with sub nodes left to visit on a stack
+     */
+    final class ImageIter implements Iterator {
+        final int kind;
+        final int[] nodes = new int[8];
+        // sub nodes of nodes[lvl] still to visit, the next one being children_left[lvl] - 1
+        final int[] children_left = new int[8];
+        int lvl = -1;
+
+        int node;
+        int entries;
+        int n;
+        int i;
+
+        ImageIter(int kind) {
+            this.kind = kind;
+            if (root >= 0) {
+                visit(root);
+            }
+        }
+
+        private void visit(int node) {
+            this.node = node;
+            this.n = arity(node);
+            this.entries = entries(node, this.n);
+            this.i = 0;
+            if ((buffer.get(node) == LeanMapFormat.BITMAP) && (buffer.getInt((node + 5)) != 0)) {
+                this.lvl++;
+                this.nodes[this.lvl] = node;
+                this.children_left[this.lvl] = Integer.bitCount(buffer.getInt((node + 5)));
+            }
+        }
+
+        public boolean hasNext() {
+            while (this.i >= this.n) {
+                while ((this.lvl >= 0) && (this.children_left[this.lvl] == 0)) {
+                    this.lvl--;
+                }
+                if (this.lvl < 0) {
+                    return false;
+                }
+                final int parent = this.nodes[this.lvl];
+                final int j = --this.children_left[this.lvl];
+                final int parent_n = arity(parent);
+                visit(buffer.getInt((entries(parent, parent_n) + (8 * parent_n) + (4 * j))));
+            }
+            return true;
+        }
+
+        public Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final int idx = this.i++;
+            switch (this.kind) {
+                case KEYS:
+                    return entry(this.node, this.entries, this.n, (2 * idx));
+                case VALS:
+                    return entry(this.node, this.entries, this.n, ((2 * idx) + 1));
+                default:
+                    return MapEntry.create(entry(this.node, this.entries, this.n, (2 * idx)), entry(this.node, this.entries, this.n, ((2 * idx) + 1)));
+            }
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    public Iterator iterator() {
+        return new ImageIter(ENTRIES);
+    }
+
+    public Iterator keyIterator() {
+        return new ImageIter(KEYS);
+    }
+
+    public Iterator valIterator() {
+        return new ImageIter(VALS);
+    }
+
+    public ISeq seq() {
+        return (this.count == 0) ? null : RT.chunkIteratorSeq(iterator());
+    }
+
+    /*
+     * The whole map decoded onto the heap as a LeanMap of the same trie, without hashing a key
+     */
+    public LeanMap toLeanMap() {
+        if (this.root < 0) {
+            return this.hashed ? LeanMap.EMPTY_HASHED : LeanMap.EMPTY;
+        }
+        return new LeanMap(this.count, materialize(this.root));
+    }
+
+    private INode materialize(int node) {
+        final int n = arity(node);
+        final int entries = entries(node, n);
+        final byte tag = this.buffer.get(node);
+        final int nodes = (tag == LeanMapFormat.BITMAP) ? Integer.bitCount(this.buffer.getInt((node + 5))) : 0;
+        final Object[] array = new Object[((2 * n) + nodes)];
+        for (int i = 0; i < (2 * n); i++) {
+            array[i] = decode(this.buffer.getInt((entries + (4 * i))));
+        }
+        switch (tag) {
+            case LeanMapFormat.FLAT:
+                return new FlatNode(null, array);
+            case LeanMapFormat.LEAF: {
+                final int datamap = this.buffer.getInt((node + 1));
+                if (n == 1) {
+                    return new LeafNode(null, datamap, array[0], array[1]);
+                }
+                return new LeafNode(null, datamap, array[0], array[1], array[2], array[3]);
+            }
+            case LeanMapFormat.BITMAP: {
+                for (int j = 0; j < nodes; j++) {
+                    array[(array.length - 1 - j)] = materialize(this.buffer.getInt((entries + (8 * n) + (4 * j))));
+                }
+                int[] hashes = null;
+                if (this.hashed) {
+                    hashes = (n == 0) ? BitmapIndexedNode.NO_HASHES : new int[n];
+                    for (int i = 0; i < n; i++) {
+                        hashes[i] = this.buffer.getInt((node + 9 + (4 * i)));
+                    }
+                }
+                return new BitmapIndexedNode(null, this.buffer.getInt((node + 1)), this.buffer.getInt((node + 5)), array, hashes);
+            }
+            default:
+                return new HashCollisionNode(null, this.buffer.getInt((node + 1)), n, array, (this.buffer.get((node + 5)) != 0));
+        }
+    }
+
+    public IPersistentMap assoc(Object key, Object val) {
+        throw new UnsupportedOperationException("MappedLeanMap is read only, toLeanMap() returns a map that can change");
+    }
+
+    public IPersistentMap assocEx(Object key, Object val) {
+        throw new UnsupportedOperationException("MappedLeanMap is read only, toLeanMap() returns a map that can change");
+    }
+
+    public IPersistentMap without(Object key) {
+        throw new UnsupportedOperationException("MappedLeanMap is read only, toLeanMap() returns a map that can change");
+    }
+
+    public IPersistentCollection empty() {
+        return this.hashed ? LeanMap.EMPTY_HASHED : LeanMap.EMPTY;
+    }
+
+    /*
+     * A DataInput reading a ByteBuffer from an offset with absolute gets, so readers never share a position
+     */
+    static final class BufferInput implements DataInput {
+        final ByteBuffer buffer;
+        int pos;
+
+        BufferInput(ByteBuffer buffer, int pos) {
+            this.buffer = buffer;
+            this.pos = pos;
+        }
+
+        private int advance(int n) throws EOFException {
+            final int pos = this.pos;
+            if ((this.buffer.limit() - pos) < n) {
+                throw new EOFException();
+            }
+            this.pos = (pos + n);
+            return pos;
+        }
+
+        public void readFully(byte[] b) throws IOException {
+            readFully(b, 0, b.length);
+        }
+
+        public void readFully(byte[] b, int off, int len) throws IOException {
+            final ByteBuffer view = this.buffer.duplicate();
+            view.position(advance(len));
+            view.get(b, off, len);
+        }
+
+        public int skipBytes(int n) {
+            final int skipped = Math.max(0, Math.min(n, (this.buffer.limit() - this.pos)));
+            this.pos += skipped;
+            return skipped;
+        }
+
+        public boolean readBoolean() throws IOException {
+            return (readByte() != 0);
+        }
+
+        public byte readByte() throws IOException {
+            return this.buffer.get(advance(1));
+        }
+
+        public int readUnsignedByte() throws IOException {
+            return (readByte() & 0xff);
+        }
+
+        public short readShort() throws IOException {
+            return this.buffer.getShort(advance(2));
+        }
+
+        public int readUnsignedShort() throws IOException {
+            return (readShort() & 0xffff);
+        }
+
+        public char readChar() throws IOException {
+            return this.buffer.getChar(advance(2));
+        }
+
+        public int readInt() throws IOException {
+            return this.buffer.getInt(advance(4));
+        }
+
+        public long readLong() throws IOException {
+            return this.buffer.getLong(advance(8));
+        }
+
+        public float readFloat() throws IOException {
+            return this.buffer.getFloat(advance(4));
+        }
+
+        public double readDouble() throws IOException {
+            return this.buffer.getDouble(advance(8));
+        }
+
+        public String readLine() {
+            throw new UnsupportedOperationException();
+        }
+
+        public String readUTF() throws IOException {
+            return DataInputStream.readUTF(this);
+        }
+    }
+}
@@ -1,8 +1,10 @@
 (ns clojure.lean-map.test
-  (:require [clojure.lean-map.util :as lmu]
+  (:require [clojure.core.reducers :as r]
+            [clojure.lean-map.util :as lmu]
             [clojure.test :as t]
             [clojure.test.check.generators :as gen]
-            [collection-check :as cc]))
+            [collection-check :as cc])
+  (:import [com.bendyworks LeanMap LeanMapFormat LongLeanMap MappedLeanMap]))
 
 (defn seq-iter-match
   [^clojure.lang.Seqable seqable ^Iterable iterable]
@@ -47,6 +49,16 @@
   (t/is (= :bar1 (-> lmu/empty transient (assoc! :key70327 :bar1 :key101439 :bar2) persistent! (get :key70327))))
   (t/is (= :bar2 (-> lmu/empty transient (assoc! :key70327 :bar1 :key101439 :bar2) persistent! (get :key101439)))))
 
+(t/deftest transient-misuse-operations
+  (let [t (transient (into lmu/empty (zipmap (range 100) (range 100))))
+        m (persistent! @(future (assoc! t 100 100)))]
+    (t/is (= 101 (count m)))
+    (t/is (thrown? IllegalAccessError (assoc! t 101 101)))
+    (t/is (thrown? IllegalAccessError (dissoc! t 0)))
+    (t/is (thrown? IllegalAccessError (count t)))
+    (t/is (thrown? IllegalAccessError (persistent! t)))
+    (t/is (= 101 (count m)))))
+
 (t/deftest dissoc-operations
   (t/is (= [:foo1] (-> lmu/empty (assoc :foo :bar :foo1 :bar1) (dissoc :foo) keys vec))))
 
@@ -61,14 +73,250 @@
   (t/is (= [:key101439] (-> lmu/empty (assoc :key70327 :bar1 :key101439 :bar2) transient (dissoc! :key70327) persistent! keys vec)))
   (t/is (= :bar2 (-> lmu/empty (assoc :key70327 :bar1 :key101439 :bar2) transient (dissoc! :key70327) persistent! (get :key101439 :bar0)))))
 
+(t/deftest batch-operations
+  (let [m (zipmap (range 1000) (range 1000))
+        kvm (into lmu/empty m)
+        ks (range 500 1500 3)]
+    (t/is (= (reduce #(assoc %1 %2 :new) m ks) (lmu/assoc-all kvm ks (repeat (count ks) :new))))
+    (t/is (= (count (reduce #(assoc %1 %2 :new) m ks)) (count (lmu/assoc-all kvm ks (repeat (count ks) :new)))))
+    (t/is (= (apply dissoc m ks) (lmu/dissoc-all kvm ks)))
+    (t/is (= (count (apply dissoc m ks)) (count (lmu/dissoc-all kvm ks))))
+    (t/is (.equiv (apply dissoc kvm ks) (lmu/dissoc-all kvm ks)))
+    (t/is (.equiv (into lmu/empty-hashed (apply dissoc m ks)) (lmu/dissoc-all (into lmu/empty-hashed m) ks)))
+    (t/is (= {} (lmu/dissoc-all kvm (keys m))))
+    (t/is (= m (lmu/assoc-all lmu/empty (keys m) (vals m))))
+    (t/is (identical? kvm (lmu/dissoc-all kvm [:foo :bar])))
+    (t/is (identical? kvm (lmu/assoc-all kvm [] [])))
+    (t/is (= m kvm))))
+
+(t/deftest batch-operations-with-hash-collisions
+  (let [kvm (lmu/assoc-all lmu/empty [:key70327 :key101439 :foo] [:bar1 :bar2 :bar])]
+    (t/is (= {:key70327 :bar1 :key101439 :bar2 :foo :bar} kvm))
+    (t/is (= {:key101439 :bar2} (lmu/dissoc-all kvm [:key70327 :foo])))
+    (t/is (.equiv (dissoc kvm :key70327 :foo) (lmu/dissoc-all kvm [:key70327 :foo])))
+    (t/is (= {:key70327 :bar3 :key101439 :bar2 :foo :bar} (lmu/assoc-all kvm [:key70327] [:bar3])))))
+
+;; a key whose equality check updates a lean map of its own, on the same thread as the outer update
+(deftype NestedUpdateKey [id]
+  Object
+  (equals [_ o]
+    (and (= 3 (count (-> lmu/empty (assoc :a 1 :b 2) (assoc :c 3) (dissoc :d))))
+         (instance? NestedUpdateKey o)
+         (= id (.id ^NestedUpdateKey o))))
+  (hashCode [_] 1)
+  clojure.lang.IHashEq
+  (hasheq [_] 1))
+
+(t/deftest nested-update-operations
+  (let [kvm (assoc lmu/empty (NestedUpdateKey. 1) :a)]
+    (t/is (= 1 (count (assoc kvm (NestedUpdateKey. 1) :b))))
+    (t/is (= 2 (count (assoc kvm (NestedUpdateKey. 2) :b))))
+    (t/is (= 0 (count (dissoc kvm (NestedUpdateKey. 1)))))
+    (t/is (= 1 (count (dissoc kvm (NestedUpdateKey. 2)))))
+    (t/is (= 3 (count (-> kvm (assoc :foo :bar) (assoc (NestedUpdateKey. 1) :c) (assoc :baz :qux)))))))
+
 (t/deftest hash-map-operations
   (t/is (= (lmu/hash-map :foo :bar) (-> lmu/empty (assoc :foo :bar))))
   (t/is (= :bar (-> (lmu/hash-map :foo :bar) (get :foo)))))
 
+(t/deftest create-operations
+  (let [m (zipmap (range 1000) (range 1000))
+        kvs (object-array (mapcat identity m))]
+    (t/is (= m (LeanMap/create kvs)))
+    (t/is (.equiv (into lmu/empty m) (LeanMap/create kvs)))
+    (t/is (.equiv (into lmu/empty-hashed m) (LeanMap/create true false kvs)))
+    (t/is (.isHashed (LeanMap/create true false kvs)))
+    (t/is (= m (LeanMap/create ^java.util.Map m)))
+    (t/is (= m (LeanMap/createWithCheck kvs)))
+    (t/is (= m (apply lmu/hash-map (seq kvs))))
+    (t/is (= {:foo :baz} (lmu/hash-map :foo :bar :foo :baz)))
+    (t/is (thrown? IllegalArgumentException (LeanMap/createWithCheck (object-array [:foo :bar :foo :baz]))))
+    (t/is (thrown? IllegalArgumentException (lmu/hash-map :foo)))
+    (t/is (thrown? IllegalArgumentException (LeanMap/create (object-array [:foo :bar :baz]))))
+    (t/is (thrown? IllegalArgumentException (LeanMap/create true false (object-array [:foo]))))
+    (t/is (identical? lmu/empty (LeanMap/create (object-array []))))))
+
+(t/deftest create-operations-with-hash-collisions
+  (let [kvs (object-array [:key70327 :bar1 :foo :bar :key101439 :bar2 :key70327 :bar3])]
+    (t/is (= {:key70327 :bar3 :key101439 :bar2 :foo :bar} (LeanMap/create kvs)))
+    (t/is (.equiv (-> lmu/empty (assoc :key70327 :bar3 :foo :bar :key101439 :bar2)) (LeanMap/create kvs)))
+    (t/is (thrown? IllegalArgumentException (LeanMap/createWithCheck kvs)))))
+
+(t/deftest parallel-create-operations
+  (let [pool (java.util.concurrent.ForkJoinPool. 4)
+        m (zipmap (range 20000) (range 20000))
+        kvs (object-array (concat (mapcat identity m) [:key70327 1 :key101439 2 0 :zero]))]
+    (try
+      (t/is (.equiv (LeanMap/create kvs) (LeanMap/create pool false false kvs)))
+      (t/is (.equiv (LeanMap/create true false kvs) (LeanMap/create pool true false kvs)))
+      (t/is (= (assoc m :key70327 1 :key101439 2 0 :zero) (LeanMap/create pool false false kvs)))
+      (t/is (thrown? IllegalArgumentException (LeanMap/create pool false true kvs)))
+      (t/is (thrown? IllegalArgumentException (LeanMap/create pool false false (object-array (butlast kvs)))))
+      (finally (.shutdown pool)))))
+
+(t/deftest vals-at-operations
+  (let [m (zipmap (range 1000) (range 1000))
+        ks (concat (range 0 2000 7) [:foo nil 3 3])]
+    (t/is (= (mapv m ks) (lmu/vals-at (into lmu/empty m) ks)))
+    (t/is (= (mapv #(get m % :none) ks) (lmu/vals-at (into lmu/empty-hashed m) ks :none)))
+    (t/is (= [:none :none] (lmu/vals-at lmu/empty [1 2] :none)))
+    (t/is (= [] (lmu/vals-at (into lmu/empty m) [])))))
+
+(t/deftest vals-at-operations-with-hash-collisions
+  (let [kvm (-> lmu/empty (assoc :key70327 :bar1 :key101439 :bar2 :foo :bar))]
+    (t/is (= [:bar2 :bar1 :bar nil] (lmu/vals-at kvm [:key101439 :key70327 :foo :baz])))
+    (t/is (= [:bar2 :none] (lmu/vals-at (dissoc kvm :key70327) [:key101439 :key70327] :none)))))
+
+(t/deftest long-map-operations
+  (let [m (zipmap (range 1000) (map str (range 1000)))
+        lm (into lmu/empty-long m)]
+    (t/is (= m lm))
+    (t/is (= lm m))
+    (t/is (= (hash m) (hash lm)))
+    (t/is (= "5" (.valAt ^LongLeanMap lm 5) (get lm 5) (get lm (int 5)) (get lm 5N) (lm 5)))
+    (t/is (= (assoc lm 5 :x) (assoc lm (int 5) :x) (into lmu/empty-long (map (fn [[k v]] [(int k) v])) (assoc m 5 :x))))
+    (t/is (nil? (get lm :foo)))
+    (t/is (nil? (get lm 5.0)))
+    (t/is (= (dissoc m 1 2 3) (dissoc lm 1 2 3)))
+    (t/is (= (count (dissoc m 1 2 3)) (count (dissoc lm 1 2 3))))
+    (t/is (= {} (reduce dissoc lm (range 1000))))
+    (t/is (= (reduce-kv (fn [a k v] (+ a k (count v))) 0 m) (reduce-kv (fn [a k v] (+ a k (count v))) 0 lm)))
+    (t/is (= (set (keys m)) (set (keys lm))))
+    (t/is (= (sort (vals m)) (sort (vals lm))))
+    (t/is (= {:foo :bar} (-> lmu/empty-long (with-meta {:foo :bar}) (assoc 1 2) meta)))
+    (t/is (= {-1 :neg Long/MAX_VALUE :max} (assoc lmu/empty-long -1 :neg Long/MAX_VALUE :max)))
+    (t/is (thrown? IllegalArgumentException (assoc lmu/empty-long :foo :bar)))))
+
+(t/deftest long-map-operations-with-hash-collisions
+  (let [lm (assoc lmu/empty-long 6695854320674 :a 13962939228625 :b 1 :c)]
+    (t/is (= (hash 6695854320674) (hash 13962939228625)))
+    (t/is (= {6695854320674 :a 13962939228625 :b 1 :c} lm))
+    (t/is (= :b (get lm 13962939228625)))
+    (t/is (= {13962939228625 :b 1 :c} (dissoc lm 6695854320674)))
+    (t/is (= {13962939228625 :b} (dissoc lm 6695854320674 1)))
+    (t/is (= :b (-> lm (dissoc 6695854320674 1) (assoc 2 :d) (get 13962939228625))))))
+
 (t/deftest seq-operations
   (t/is (= false (-> lmu/empty (assoc :foo :bar) seq empty?)))
   (t/is (= [:foo :bar] (-> lmu/empty (assoc :foo :bar) seq first))))
 
+(t/deftest chunked-seq-operations
+  (let [m (zipmap (range 1000) (range 1000))
+        kvm (into lmu/empty m)
+        hkvm (into lmu/empty-hashed m)]
+    (t/is (chunked-seq? (seq kvm)))
+    (t/is (chunked-seq? (seq (into lmu/empty {:a 1 :b 2}))))
+    (t/is (chunked-seq? (seq hkvm)))
+    (t/is (nil? (seq-iter-match kvm kvm)))
+    (t/is (nil? (seq-iter-match hkvm hkvm)))
+    (t/is (= (seq kvm) (iterator-seq (.iterator kvm))))
+    (t/is (= (set (map inc (vals m))) (set (map (comp inc val) kvm))))
+    (t/is (= (filter (comp even? key) (seq kvm)) (filter (comp even? key) (iterator-seq (.iterator kvm)))))
+    (t/is (= 1000 (count (seq kvm)) (count (into [] (seq kvm)))))
+    (t/is (= (into [] (seq kvm))
+             (loop [s (seq kvm) acc []]
+               (if s
+                 (recur (chunk-next s) (.reduce (chunk-first s) conj acc))
+                 acc))))
+    (t/is (= (rest (seq kvm)) (next (seq kvm))))
+    (t/is (= (rest (seq kvm)) (concat (rest (.reduce (chunk-first (seq kvm)) conj [])) (chunk-rest (seq kvm)))))
+    (t/is (= {:m 1} (meta (with-meta (seq kvm) {:m 1}))))))
+
+(t/deftest chunked-seq-operations-with-hash-collisions
+  (let [m (assoc (zipmap (range 100) (range 100)) :key70327 :bar1 :key101439 :bar2)
+        kvm (into lmu/empty m)]
+    (t/is (nil? (seq-iter-match kvm kvm)))
+    (t/is (= m (into {} (map identity kvm))))
+    (t/is (= (into [] (seq kvm))
+             (loop [s (seq kvm) acc []]
+               (if s
+                 (recur (chunk-next s) (.reduce (chunk-first s) conj acc))
+                 acc))))))
+
+(defn- cursor-entries
+  [^LeanMap m]
+  (let [c (.cursor m)]
+    (loop [acc []]
+      (if (.advance c)
+        (recur (conj acc [(.key c) (.val c)]))
+        acc))))
+
+(t/deftest cursor-operations
+  (let [m (zipmap (range 1000) (range 1000))
+        kvm (into lmu/empty m)
+        hkvm (into lmu/empty-hashed m)]
+    (t/is (= (seq kvm) (seq (cursor-entries kvm))))
+    (t/is (= (seq hkvm) (seq (cursor-entries hkvm))))
+    (t/is (= (keys kvm) (iterator-seq (.keyIterator kvm))))
+    (t/is (= (vals kvm) (iterator-seq (.valIterator kvm))))
+    (t/is (= [] (cursor-entries lmu/empty) (cursor-entries lmu/empty-hashed) (cursor-entries (dissoc (into lmu/empty-hashed {:a 1}) :a))
+             (cursor-entries (dissoc (into lmu/empty {:a 1}) :a)) (cursor-entries (persistent! (dissoc! (transient (into lmu/empty {:a 1})) :a))))
+        "empty maps have no entries")
+    (t/is (= [[:a 1]] (cursor-entries (into lmu/empty {:a 1}))))
+    (t/is (= {:a 1 :b 2 nil 3} (into {} (cursor-entries (into lmu/empty {:a 1 :b 2 nil 3})))))
+    (let [c (.cursor (into lmu/empty {:a 1}))]
+      (t/is (.advance c))
+      (t/is (not (.advance c)))
+      (t/is (not (.advance c))))
+    (let [i (.keyIterator kvm)]
+      (t/is (.hasNext i))
+      (t/is (.hasNext i))
+      (t/is (= (first (keys kvm)) (.next i)))
+      (t/is (= 999 (count (iterator-seq i))))
+      (t/is (thrown? java.util.NoSuchElementException (.next i))))
+    (t/is (thrown? java.util.NoSuchElementException (.next (.iterator lmu/empty))))))
+
+(t/deftest cursor-operations-with-hash-collisions
+  (let [m (assoc (zipmap (range 100) (range 100)) :key70327 :bar1 :key101439 :bar2)
+        kvm (into lmu/empty m)]
+    (t/is (= (seq kvm) (seq (cursor-entries kvm))))
+    (t/is (= (keys kvm) (iterator-seq (.keyIterator kvm))))
+    (t/is (= (vals kvm) (iterator-seq (.valIterator kvm))))
+    (t/is (= {:key70327 :bar1 :key101439 :bar2} (into {} (cursor-entries (into lmu/empty {:key70327 :bar1 :key101439 :bar2})))))))
+
+(defn- split-all
+  "The elements of spliterator s, splitting it as far as it goes"
+  [^java.util.Spliterator s]
+  (if-let [split (.trySplit s)]
+    (concat (split-all split) (split-all s))
+    (let [acc (java.util.ArrayList.)]
+      (.forEachRemaining s (reify java.util.function.Consumer (accept [_ x] (.add acc x))))
+      (vec acc))))
+
+(t/deftest spliterator-operations
+  (let [m (zipmap (range 1000) (range 1000))
+        kvm (into lmu/empty m)
+        s (.spliterator (.entrySet kvm))]
+    (t/is (= 1000 (.getExactSizeIfKnown s)))
+    (t/is (.hasCharacteristics s java.util.Spliterator/DISTINCT))
+    (t/is (.hasCharacteristics s java.util.Spliterator/IMMUTABLE))
+    (t/is (.hasCharacteristics s java.util.Spliterator/NONNULL))
+    (t/is (= m (into {} (split-all s))))
+    (t/is (= 1000 (count (split-all (.spliterator kvm)))))
+    (t/is (= (set (keys m)) (set (split-all (.spliterator (.keySet kvm))))))
+    (t/is (= (sort (vals m)) (sort (split-all (.spliterator (.values kvm))))))
+    (t/is (= (set (keys m)) (set (split-all (.spliterator (.keySet (into lmu/empty-hashed m)))))))
+    (t/is (= {:a 1 nil 2} (into {} (split-all (.spliterator (.entrySet (into lmu/empty {:a 1 nil 2})))))))
+    (t/is (= 0 (.getExactSizeIfKnown (.spliterator (.entrySet lmu/empty)))))
+    (let [s (.spliterator (.entrySet kvm))
+          seen (java.util.ArrayList.)
+          consumer (reify java.util.function.Consumer (accept [_ x] (.add seen x)))]
+      (dotimes [_ 10] (.tryAdvance s consumer))
+      (t/is (= 990 (.getExactSizeIfKnown s)))
+      (t/is (= m (into {} (concat seen (split-all s))))))
+    (t/is (= (reduce + (vals m))
+             (-> kvm .values .parallelStream (.mapToLong (reify java.util.function.ToLongFunction (applyAsLong [_ v] v))) .sum)))
+    (t/is (= 1000 (-> kvm .entrySet .parallelStream (.collect (java.util.stream.Collectors/toSet)) count)))))
+
+(t/deftest spliterator-operations-with-hash-collisions
+  (let [m (assoc (zipmap (range 100) (range 100)) :key70327 :bar1 :key101439 :bar2)
+        kvm (into lmu/empty m)]
+    (t/is (= 102 (.getExactSizeIfKnown (.spliterator (.entrySet kvm)))))
+    (t/is (= m (into {} (split-all (.spliterator (.entrySet kvm))))))
+    (t/is (= {:key70327 :bar1 :key101439 :bar2}
+             (into {} (split-all (.spliterator (.entrySet (into lmu/empty {:key70327 :bar1 :key101439 :bar2})))))))
+    (t/is (= 102 (-> kvm .keySet .parallelStream .count)))))
+
 (t/deftest kv-reduce-operations
   (t/is (= 45 (let [kvm (->> (zipmap (range 10) (range 10)) (into lmu/empty))]
                 (.kvreduce kvm (fn [sum _ v] (+ sum v)) 0)))))
@@ -77,6 +325,394 @@
   (t/is (= 45 (let [kvm (->> (zipmap (range 10) (range 10)) (into lmu/empty))]
                 (reduce (fn [sum [_ v]] (+ sum v)) 0 kvm)))))
 
+(t/deftest fold-operations
+  (let [kvm (->> (zipmap (range 10000) (range 10000)) (into lmu/empty))
+        sum-vals (fn ([] 0) ([sum _ v] (+ sum v)))]
+    (t/is (= 49995000 (r/fold + sum-vals kvm)))
+    (t/is (= 49995000 (r/fold 1 + sum-vals kvm)))
+    (t/is (= 49995000 (r/fold 1e6 + sum-vals kvm)))
+    (t/is (= 0 (r/fold + sum-vals lmu/empty)))))
+
+(t/deftest fold-operations-with-hash-collisions
+  (let [kvm (-> lmu/empty (assoc :key70327 :bar1 :key101439 :bar2 :foo :bar))
+        union (fn ([] #{}) ([a b] (into a b)))]
+    (t/is (= #{:key70327 :key101439 :foo} (r/fold 1 union (fn [ks k _] (conj ks k)) kvm)))))
+
+(t/deftest equiv-operations
+  (let [kvm (->> (zipmap (range 1000) (range 1000)) (into lmu/empty))]
+    (t/is (= kvm (-> kvm (dissoc 500) (assoc 500 500))))
+    (t/is (= kvm (->> (zipmap (reverse (range 1000)) (reverse (range 1000))) (into lmu/empty))))
+    (t/is (= kvm (zipmap (range 1000) (range 1000))))
+    (t/is (not= kvm (assoc kvm 500 :foo)))
+    (t/is (not= kvm (dissoc kvm 500)))
+    (t/is (not= kvm (-> kvm (dissoc 500) (assoc 1000 500))))
+    (t/is (= lmu/empty (-> kvm transient (dissoc! 0) persistent! empty)))))
+
+(t/deftest equiv-operations-with-hash-collisions
+  (let [kvm (-> lmu/empty (assoc :key70327 :bar1 :key101439 :bar2 :foo :bar))]
+    (t/is (= kvm (-> lmu/empty (assoc :key101439 :bar2 :foo :bar :key70327 :bar1))))
+    (t/is (not= kvm (-> lmu/empty (assoc :key101439 :bar1 :foo :bar :key70327 :bar2))))
+    (t/is (not= kvm (dissoc kvm :key70327)))))
+
+(t/deftest leaf-node-operations
+  (let [kvm (->> (zipmap (range 100) (range 100)) (into lmu/empty))
+        hkvm (into lmu/empty-hashed kvm)]
+    (t/is (= kvm hkvm))
+    (t/is (= hkvm kvm))
+    (t/is (.equals kvm hkvm))
+    (t/is (not= kvm (assoc hkvm 50 :foo)))
+    (t/is (= (zipmap (range 3) (range 3)) (reduce dissoc kvm (range 3 100))))
+    (t/is (= {} (reduce dissoc kvm (range 100))))
+    (t/is (= kvm (persistent! (reduce #(assoc! %1 %2 %2) (transient (reduce dissoc kvm (range 50))) (range 50)))))
+    (t/is (= (zipmap (range 100) (repeat :foo)) (persistent! (reduce #(assoc! %1 %2 :foo) (transient kvm) (range 100)))))
+    (t/is (= kvm (zipmap (range 100) (range 100))))))
+
+(t/deftest leaf-node-operations-with-hash-collisions
+  (let [kvm (-> lmu/empty (assoc :key70327 :bar1 :key101439 :bar2 :foo :bar))
+        hkvm (into lmu/empty-hashed kvm)]
+    (t/is (= kvm hkvm))
+    (t/is (= (dissoc kvm :key70327) (dissoc hkvm :key70327)))
+    (t/is (= {:key101439 :bar2} (dissoc kvm :key70327 :foo)))
+    (t/is (= {:foo :bar} (dissoc kvm :key70327 :key101439)))))
+
+(t/deftest small-map-operations
+  (let [kvm (into lmu/empty (zipmap (range 8) (range 8)))
+        big (assoc kvm 8 8)]
+    (t/is (= (zipmap (range 8) (range 8)) kvm))
+    (t/is (= (zipmap (range 9) (range 9)) big))
+    (t/is (= kvm (dissoc big 8)))
+    (t/is (= (hash kvm) (hash (dissoc big 8))))
+    (t/is (= (seq kvm) (iterator-seq (.iterator kvm))))
+    (t/is (= (seq (dissoc big 8)) (iterator-seq (.iterator (dissoc big 8)))))
+    (t/is (= 28 (reduce-kv (fn [acc k v] (+ acc v)) 0 kvm)))
+    (t/is (= 28 (r/fold + (fn [acc k v] (+ acc v)) kvm)))
+    (t/is (= kvm (persistent! (dissoc! (transient big) 8))))
+    (t/is (= big (persistent! (assoc! (transient kvm) 8 8))))
+    (t/is (= kvm (.withoutAll big (object-array [8 9]))))
+    (t/is (= big (.assocAll kvm (object-array [8]) (object-array [8]))))
+    (t/is (= kvm (LeanMap/create (object-array (mapcat (fn [i] [i i]) (concat (range 8) (range 8)))))))
+    (t/is (= kvm (into lmu/empty-hashed kvm)))
+    (t/is (nil? (get (transient lmu/empty) :foo)))
+    (t/is (= {} (reduce dissoc kvm (range 8))))))
+
+(t/deftest small-map-operations-with-hash-collisions
+  (let [kvm (-> lmu/empty (assoc :key70327 :bar1 :key101439 :bar2 :foo :bar))
+        big (into kvm (zipmap (range 6) (range 6)))]
+    (t/is (= :bar2 (get big :key101439)))
+    (t/is (= kvm (reduce dissoc big (range 6))))
+    (t/is (= {:key101439 :bar2 :foo :bar} (dissoc kvm :key70327)))
+    (t/is (= (hash {:key70327 :bar1 :key101439 :bar2 :foo :bar}) (hash (reduce dissoc big (range 6)))))))
+
+(t/deftest sorted-collision-operations-with-hash-collisions
+  ;; "Aa" and "BB" share a String hash, so all 64 keys collide
+  (let [ks (map (fn [i] (apply str (map #(if (bit-test i %) "BB" "Aa") (range 6)))) (range 64))
+        m (zipmap ks (range 64))
+        kvm (reduce-kv assoc lmu/empty m)
+        odd (reify clojure.lang.IHashEq (hasheq [_] (hash (first ks))))]
+    (t/is (= {64 1} (:collision-sizes (lmu/stats kvm))))
+    (t/is (= m kvm (into lmu/empty m) (apply lmu/hash-map (mapcat identity m))))
+    (t/is (every? #(= (m %) (kvm %)) ks))
+    (t/is (= (apply dissoc m (take 40 ks)) (apply dissoc kvm (take 40 ks))))
+    (t/is (= :odd (-> kvm (assoc odd :odd) (get odd))))
+    (t/is (= (assoc m odd :odd) (-> kvm (assoc odd :odd) (dissoc (first ks)) (assoc (first ks) 0))))
+    (t/is (= (assoc m :foo 1) (persistent! (assoc! (transient kvm) :foo 1))))))
+
+(defn- round-trip [m]
+  (let [loaded (lmu/from-bytes (lmu/to-bytes m))]
+    (and (= m loaded)
+         (= (seq m) (seq loaded))
+         (= (.isHashed ^LeanMap m) (.isHashed ^LeanMap loaded))
+         (= (lmu/stats m) (lmu/stats loaded))
+         (every? #(= (get m %) (get loaded %)) (keys m)))))
+
+(t/deftest format-operations
+  (let [m (zipmap (range 1000) (range 1000))]
+    (t/is (round-trip lmu/empty))
+    (t/is (round-trip lmu/empty-hashed))
+    (t/is (round-trip (into lmu/empty {:a 1})))
+    (t/is (round-trip (into lmu/empty {:a 1 :b 2 :c 3})))
+    (t/is (round-trip (into lmu/empty m)))
+    (t/is (round-trip (into lmu/empty-hashed m)))
+    (t/is (round-trip (apply dissoc (into lmu/empty m) (range 0 1000 2))))
+    (t/is (round-trip (apply dissoc (into lmu/empty-hashed m) (range 0 1000 2))))
+    (t/is (round-trip (into lmu/empty (zipmap (range 20) [nil true false 1 (int 2) 1.5 "s" "" :k :ns/k 'sym 'ns/sym
+                                                          (into lmu/empty {:nested 1}) (into lmu/empty {:a lmu/empty})
+                                                          (apply str (repeat 70000 "x")) "\u00e9\u4e2d" -1 Long/MIN_VALUE Double/MAX_VALUE 0.0]))))
+    (t/is (= {nil 1 "x" nil :k 'v} (lmu/from-bytes (lmu/to-bytes (into lmu/empty {nil 1 "x" nil :k 'v})))))
+    (t/is (= Integer (class (get (lmu/from-bytes (lmu/to-bytes (into lmu/empty {:i (int 1)}))) :i))))
+    (t/is (thrown? IllegalArgumentException (lmu/to-bytes (into lmu/empty {:v [1 2]}))))
+    (t/is (thrown? java.io.IOException (lmu/from-bytes (byte-array 16))))
+    (t/is (thrown? java.io.IOException (lmu/from-bytes (let [b (lmu/to-bytes (into lmu/empty m))] (aset-byte b 4 9) b))))
+    (let [codec (reify com.bendyworks.LeanMapFormat$Codec
+                  (write [_ out o] (.writeLong ^java.io.DataOutput out (long o)))
+                  (read [_ in] (.readLong ^java.io.DataInput in)))]
+      (t/is (= m (lmu/from-bytes (lmu/to-bytes (into lmu/empty m) codec) codec))))))
+
+(t/deftest format-operations-with-hash-collisions
+  (let [ks (map (fn [i] (apply str (map #(if (bit-test i %) "BB" "Aa") (range 6)))) (range 64))
+        m (assoc (zipmap (range 100) (range 100)) :key70327 :bar1 :key101439 :bar2)]
+    (t/is (round-trip (into lmu/empty m)))
+    (t/is (round-trip (into lmu/empty-hashed m)))
+    (t/is (round-trip (into lmu/empty (zipmap ks (range 64)))))
+    (t/is (round-trip (into lmu/empty-hashed (zipmap ks (range 64)))))
+    (t/is (round-trip (dissoc (into lmu/empty (zipmap ks (range 64))) (first ks))))))
+
+;; the same map through an image on disk, without and with a cache of decoded nodes, and decoded back to the heap
+(defn- mapped-match [m]
+  (let [file (doto (java.io.File/createTempFile "lean-map" ".img") (.deleteOnExit))]
+    (lmu/write-image m file)
+    (every? (fn [mm]
+              (and (= m mm)
+                   (= (count m) (count mm))
+                   (= (seq m) (seq mm))
+                   (= (keys m) (keys mm))
+                   (= (vals m) (vals mm))
+                   (= (reduce-kv conj [] m) (reduce-kv conj [] mm))
+                   (every? #(and (contains? mm %) (= (get m %) (get mm %)) (= (find m %) (find mm %))) (keys m))
+                   (not (contains? mm ::absent))
+                   (= ::nf (get mm ::absent ::nf))
+                   (= (.isHashed ^LeanMap m) (.isHashed ^MappedLeanMap mm))
+                   (let [loaded (.toLeanMap ^MappedLeanMap mm)]
+                     (and (= m loaded) (= (seq m) (seq loaded)) (= (lmu/stats m) (lmu/stats loaded))))))
+            [(lmu/mapped file) (lmu/mapped file LeanMapFormat/DEFAULT 1) (lmu/mapped file LeanMapFormat/DEFAULT 64)])))
+
+(t/deftest mapped-operations
+  (let [m (zipmap (range 1000) (range 1000))]
+    (t/is (mapped-match lmu/empty))
+    (t/is (mapped-match lmu/empty-hashed))
+    (t/is (mapped-match (into lmu/empty {:a 1})))
+    (t/is (mapped-match (into lmu/empty {:a 1 :b 2 :c 3})))
+    (t/is (mapped-match (into lmu/empty m)))
+    (t/is (mapped-match (into lmu/empty-hashed m)))
+    (t/is (mapped-match (apply dissoc (into lmu/empty m) (range 0 1000 2))))
+    (t/is (mapped-match (into lmu/empty (zipmap (range 20) [nil true false 1 (int 2) 1.5 "s" "" :k :ns/k 'sym 'ns/sym
+                                                            (into lmu/empty {:nested 1}) -1 Long/MIN_VALUE 0.0
+                                                            (apply str (repeat 70000 "x")) "\u00e9\u4e2d" 2.5 :z]))))
+    (let [file (doto (java.io.File/createTempFile "lean-map" ".img") (.deleteOnExit))]
+      (lmu/write-image (into lmu/empty m) file)
+      (let [mm (lmu/mapped file)]
+        (t/is (= 3 (reduce-kv (fn [acc k v] (if (= acc 2) (reduced 3) (inc acc))) 0 mm)))
+        (t/is (= (set (range 1000)) (set (keys mm))))
+        (t/is (thrown? UnsupportedOperationException (assoc mm :a 1)))
+        (t/is (thrown? UnsupportedOperationException (dissoc mm 1)))
+        (t/is (= {:a 1} (assoc (empty mm) :a 1)))
+        (t/is (= (assoc m :a 1) (assoc (.toLeanMap ^MappedLeanMap mm) :a 1)))))
+    (let [file (doto (java.io.File/createTempFile "lean-map" ".img") (.deleteOnExit))]
+      (spit file "not an image at all")
+      (t/is (thrown? java.io.IOException (lmu/mapped file))))))
+
+(t/deftest mapped-operations-with-hash-collisions
+  (let [ks (map (fn [i] (apply str (map #(if (bit-test i %) "BB" "Aa") (range 6)))) (range 64))
+        m (assoc (zipmap (range 100) (range 100)) :key70327 :bar1 :key101439 :bar2)]
+    (t/is (mapped-match (into lmu/empty m)))
+    (t/is (mapped-match (into lmu/empty-hashed m)))
+    (t/is (mapped-match (into lmu/empty (zipmap ks (range 64)))))
+    (t/is (mapped-match (into lmu/empty-hashed (zipmap ks (range 64)))))
+    (t/is (mapped-match (dissoc (into lmu/empty (zipmap ks (range 64))) (first ks))))))
+
+(t/deftest equals-operations
+  (let [kvm (-> lmu/empty (assoc :foo 1))]
+    (t/is (= kvm (-> lmu/empty (assoc :foo (int 1)))))
+    (t/is (not (.equals kvm (-> lmu/empty (assoc :foo (int 1))))))
+    (t/is (.equals kvm (-> lmu/empty (assoc :foo (long 1)))))))
+
+(t/deftest hash-operations
+  (let [kvm (->> (zipmap (range 1000) (range 1000)) (into lmu/empty))]
+    (t/is (= (hash (zipmap (range 1000) (range 1000))) (hash kvm)))
+    (t/is (= (hash (-> (zipmap (range 1000) (range 1000)) (assoc 500 :foo))) (hash (assoc kvm 500 :foo))))
+    (t/is (= (hash (-> (zipmap (range 1000) (range 1000)) (dissoc 500))) (hash (dissoc kvm 500))))
+    (t/is (= (hash {}) (hash lmu/empty)))))
+
+(t/deftest hash-operations-with-hash-collisions
+  (let [kvm (-> lmu/empty (assoc :key70327 :bar1 :key101439 :bar2 :foo :bar))]
+    (t/is (= (hash {:key70327 :bar1 :key101439 :bar2 :foo :bar}) (hash kvm)))
+    (t/is (= (hash {:key101439 :bar2 :foo :bar}) (hash (dissoc kvm :key70327))))))
+
+(t/deftest hashed-operations
+  (let [kvm (->> (zipmap (range 1000) (range 1000)) (into lmu/empty-hashed))]
+    (t/is (.isHashed kvm))
+    (t/is (= (zipmap (range 1000) (range 1000)) kvm))
+    (t/is (= (hash (zipmap (range 1000) (range 1000))) (hash kvm)))
+    (t/is (.isHashed (reduce dissoc kvm (range 1000))))
+    (t/is (.isHashed (empty kvm)))
+    (t/is (not (.isHashed (into lmu/empty kvm))))))
+
+(t/deftest hashed-operations-with-hash-collisions
+  (let [kvm (-> lmu/empty-hashed (assoc :key70327 :bar1 :key101439 :bar2 :foo :bar))]
+    (t/is (= :bar1 (get kvm :key70327)))
+    (t/is (= :bar2 (get kvm :key101439)))
+    (t/is (= {:key101439 :bar2 :foo :bar} (dissoc kvm :key70327)))
+    (t/is (.isHashed (dissoc kvm :key70327 :foo)))
+    (t/is (= :bar2 (-> kvm (dissoc :key70327 :foo) (assoc :baz :qux) (get :key101439))))))
+
+(t/deftest merge-operations
+  (let [m1 (zipmap (range 0 1000) (range 0 1000))
+        m2 (zipmap (range 500 1500) (map - (range 500 1500)))
+        kvm1 (into lmu/empty m1)
+        kvm2 (into lmu/empty m2)]
+    (t/is (= (merge m1 m2) (lmu/merge kvm1 kvm2)))
+    (t/is (= (count (merge m1 m2)) (count (lmu/merge kvm1 kvm2))))
+    (t/is (= (merge-with + m1 m2) (lmu/merge-with + kvm1 kvm2)))
+    (t/is (= (merge-with + m1 m1) (lmu/merge-with + kvm1 kvm1)))
+    (t/is (identical? kvm1 (lmu/merge kvm1 kvm1)))
+    (t/is (identical? kvm1 (lmu/merge kvm1 (reduce dissoc kvm1 (range 100 1000)))))
+    (t/is (= (merge m1 m2) (lmu/merge (into lmu/empty-hashed m1) kvm2)))
+    (t/is (= (merge m1 m2) (lmu/merge kvm1 (into lmu/empty-hashed m2))))
+    (t/is (= (merge m1 m2) (lmu/merge (into lmu/empty-hashed m1) (into lmu/empty-hashed m2))))
+    (t/is (= {:foo :bar} (lmu/merge lmu/empty {:foo :bar})))
+    (t/is (= m1 (lmu/merge kvm1 lmu/empty)))
+    (t/is (= m2 (lmu/merge lmu/empty kvm2)))
+    (t/is (.isHashed ^LeanMap (lmu/merge lmu/empty-hashed (into lmu/empty {:a 1}))))
+    (t/is (.isHashed ^LeanMap (lmu/merge lmu/empty-hashed kvm2)))
+    (t/is (= m2 (lmu/merge lmu/empty-hashed kvm2)))
+    (t/is (not (.isHashed ^LeanMap (lmu/merge lmu/empty (into lmu/empty-hashed {:a 1})))))
+    (t/is (not (.isHashed ^LeanMap (lmu/merge lmu/empty (into lmu/empty-hashed m2)))))
+    (t/is (= m2 (lmu/merge lmu/empty (into lmu/empty-hashed m2))))
+    (t/is (= (assoc m1 -1 -1) (lmu/merge kvm1 (assoc kvm1 -1 -1))))
+    (t/is (= 1001 (count (lmu/merge kvm1 (assoc kvm1 -1 -1)))))
+    (t/is (= 1000 (count (lmu/merge kvm1 (assoc kvm1 5 -5)))))
+    (t/is (= (merge {:a 1 :b 2} m1) (lmu/merge (into lmu/empty {:a 1 :b 2}) kvm1)))
+    (t/is (= (merge-with + {0 1 :b 2} m1) (lmu/merge-with + (into lmu/empty {0 1 :b 2}) kvm1)))
+    (t/is (= 1001 (count (lmu/merge (into lmu/empty {0 1 :b 2}) kvm1))))
+    (t/is (= (merge m1 {:a 1 0 2}) (lmu/merge kvm1 (into lmu/empty {:a 1 0 2}))))
+    (t/is (= (merge (zipmap (range 0 40 2) (range)) (zipmap (range 1 40 3) (range)))
+             (lmu/merge (into lmu/empty (zipmap (range 0 40 2) (range))) (into lmu/empty (zipmap (range 1 40 3) (range))))))))
+
+(t/deftest merge-operations-with-hash-collisions
+  (let [kvm1 (-> lmu/empty (assoc :key70327 1 :foo 1))
+        kvm2 (-> lmu/empty (assoc :key101439 2 :foo 2))]
+    (t/is (= {:key70327 1 :key101439 2 :foo 2} (lmu/merge kvm1 kvm2)))
+    (t/is (= {:key70327 1 :key101439 2 :foo 3} (lmu/merge-with + kvm1 kvm2)))
+    (t/is (= {:key70327 2 :key101439 4 :foo 3}
+             (lmu/merge-with + (assoc kvm1 :key101439 2) (assoc kvm2 :key70327 1))))))
+
+(t/deftest diff-operations
+  (let [m1 (zipmap (range 0 1000) (range 0 1000))
+        m2 (-> m1 (dissoc 1 2 3) (assoc 5 :five 1000 1000 1001 1001))
+        kvm1 (into lmu/empty m1)
+        kvm2 (-> kvm1 (dissoc 1 2 3) (assoc 5 :five 1000 1000 1001 1001))
+        expected {:added {1000 1000 1001 1001} :removed {1 1 2 2 3 3} :changed {5 [5 :five]}}]
+    (t/is (= m2 kvm2))
+    (t/is (= expected (lmu/diff kvm1 kvm2)))
+    (t/is (= expected (lmu/diff kvm1 (into lmu/empty-hashed m2))))
+    (t/is (= expected (lmu/diff (into lmu/empty-hashed m1) kvm2)))
+    (t/is (= {:added {} :removed {} :changed {}} (lmu/diff kvm1 kvm1)))
+    (t/is (= {:added {} :removed {} :changed {}} (lmu/diff kvm1 (into lmu/empty m1))))
+    (t/is (= {:added m1 :removed {} :changed {}} (lmu/diff lmu/empty kvm1)))
+    (t/is (= {:added {} :removed m1 :changed {}} (lmu/diff kvm1 lmu/empty-hashed)))
+    (t/is (= 6 (count (into [] (lmu/changes kvm1 kvm2)))))
+    (t/is (= 1 (count (into [] (take 1) (lmu/changes kvm1 kvm2)))))
+    (t/is (= #{[:removed 1 1 nil] [:removed 2 2 nil] [:removed 3 3 nil]
+               [:changed 5 5 :five] [:added 1000 nil 1000] [:added 1001 nil 1001]}
+             (set (into [] (lmu/changes kvm1 kvm2)))))))
+
+(t/deftest diff-operations-with-hash-collisions
+  (let [kvm1 (-> lmu/empty (assoc :key70327 1 :foo 1))
+        kvm2 (-> kvm1 (assoc :key101439 2 :foo 2))]
+    (t/is (= {:added {:key101439 2} :removed {} :changed {:foo [1 2]}} (lmu/diff kvm1 kvm2)))
+    (t/is (= {:added {} :removed {:key101439 2} :changed {:foo [2 1]}} (lmu/diff kvm2 kvm1)))
+    (t/is (= {:added {} :removed {:key70327 1} :changed {:key101439 [2 3]}}
+             (lmu/diff kvm2 (-> kvm2 (dissoc :key70327) (assoc :key101439 3)))))))
+
+(defn- fill-forked [t kvs]
+  (let [children (lmu/fork! t)
+        by-slot (group-by (comp lmu/root-slot key) kvs)]
+    (->> (range 32)
+         (map (fn [i] (future (reduce (fn [c [k v]] (assoc! c k v)) (children i) (by-slot i)))))
+         doall
+         (run! deref))
+    (lmu/join! t children)))
+
+(t/deftest fork-join-operations
+  (let [m (zipmap (range 1000) (range 1000))
+        kvm (into lmu/empty (zipmap (range 500) (repeat :old)))]
+    (t/is (= m (persistent! (fill-forked (transient lmu/empty) m))))
+    (t/is (= m (persistent! (fill-forked (transient kvm) m))))
+    (t/is (= (assoc m 1000 1000) (persistent! (assoc! (fill-forked (transient kvm) m) 1000 1000))))
+    (t/is (= m (persistent! (fill-forked (transient lmu/empty-hashed) m))))
+    (t/is (= {:a 1} (persistent! (fill-forked (transient lmu/empty) {:a 1}))))
+    (t/is (= m (persistent! @(future (fill-forked (transient lmu/empty) m)))))
+    (let [t (transient kvm)
+          children (lmu/fork! t)]
+      (t/is (thrown? IllegalAccessError (assoc! t :a 1)))
+      (t/is (thrown? IllegalArgumentException (assoc! (children (mod (inc (lmu/root-slot :a)) 32)) :a 1)))
+      (t/is (= (dec (count (filter #(= (lmu/root-slot 0) (lmu/root-slot %)) (range 500))))
+               (count (dissoc! (children (lmu/root-slot 0)) 0))))
+      (t/is (= (dissoc kvm 0) (persistent! (lmu/join! t children)))))))
+
+(t/deftest fork-join-operations-with-hash-collisions
+  (let [m (assoc (zipmap (range 20) (range 20)) :key70327 :bar1 :key101439 :bar2)]
+    (t/is (= m (persistent! (fill-forked (transient lmu/empty) m))))
+    (t/is (= m (persistent! (fill-forked (dissoc! (transient (into lmu/empty m)) :key70327) m))))
+    (t/is (= (dissoc m :key70327)
+             (persistent! (fill-forked (dissoc! (transient (into lmu/empty m)) :key70327) (dissoc m :key70327)))))))
+
+(t/deftest concurrent-map-operations
+  (let [m (zipmap (range 100) (range 100))
+        cm (lmu/concurrent-map m)
+        snap (lmu/snapshot cm)]
+    (t/is (= m snap (into {} cm)))
+    (t/is (= (into lmu/empty m) snap))
+    (t/is (= 0 (.put cm 0 :zero)))
+    (t/is (= 0 (get snap 0)))
+    (t/is (= :zero (get (lmu/snapshot cm) 0)))
+    (t/is (< 0 (:shared-bytes (lmu/stats (lmu/snapshot cm) snap)) (:bytes (lmu/stats snap))))
+    (t/is (= :zero (.putIfAbsent cm 0 :other)))
+    (t/is (nil? (.putIfAbsent cm 100 100)))
+    (t/is (= 101 (count cm)))
+    (t/is (.remove cm 100 100))
+    (t/is (= :zero (.remove cm 0)))
+    (t/is (= (dissoc m 0) (lmu/snapshot cm)))
+    (t/is (= (dissoc m 0) cm))
+    (t/is (= (set (keys (dissoc m 0))) (set (keys cm))))
+    (t/is (= (set (vals (dissoc m 0))) (set (.values cm))))
+    (t/is (.containsValue cm 50))
+    (t/is (.contains (.entrySet cm) (first {1 1})))
+    (t/is (= (.hashCode (dissoc m 0)) (.hashCode cm)))
+    (t/is (= (dissoc m 0 1) (let [it (.iterator (.entrySet cm))]
+                              (while (not= 1 (key (.next it))))
+                              (.remove it)
+                              (lmu/snapshot cm))))
+    (t/is (= {} (do (.clear cm) (lmu/snapshot cm))))
+    (t/is (= "{}" (str cm)))
+    (t/is (thrown? NullPointerException (.put cm :foo nil)))))
+
+(t/deftest concurrent-map-operations-with-hash-collisions
+  (let [cm (lmu/concurrent-map {:key70327 :bar1 :key101439 :bar2})]
+    (t/is (= :bar1 (get cm :key70327)))
+    (t/is (= {:key101439 :bar2} (do (.remove cm :key70327) (lmu/snapshot cm))))
+    (t/is (= :bar2 (get cm :key101439)))
+    (t/is (= (into lmu/empty (zipmap (range 20) (range 20)))
+             (do (.remove cm :key101439) (.putAll cm (zipmap (range 20) (range 20))) (lmu/snapshot cm))))))
+
+(defn- weighted-sum [histogram]
+  (reduce + (map (fn [[arity n]] (* arity n)) histogram)))
+
+(t/deftest stats-operations
+  (let [kvm (into lmu/empty (zipmap (range 1000) (range 1000)))
+        s (lmu/stats kvm)
+        changed (lmu/stats (assoc kvm 0 :zero) kvm)]
+    (t/is (= 1000 (:count s)))
+    (t/is (= 1 (first (:nodes s))))
+    (t/is (= (reduce + (:nodes s)) (reduce + (vals (:data-arity s))) (reduce + (vals (:node-arity s)))))
+    (t/is (= 1000 (weighted-sum (:data-arity s))))
+    (t/is (= (dec (reduce + (:nodes s))) (weighted-sum (:node-arity s))))
+    (t/is (= (dec (count (:nodes s))) (:max-depth s)))
+    (t/is (= 0 (:collision-nodes s) (:shared-bytes s)))
+    (t/is (= (:bytes s) (:shared-bytes (lmu/stats kvm kvm))))
+    (t/is (< 0 (:shared-bytes changed) (:bytes changed)))
+    (t/is (= 0 (:bytes (lmu/stats lmu/empty))))
+    (t/is (= {2 1} (:data-arity (lmu/stats (into lmu/empty {:a 1 :b 2})))))))
+
+(t/deftest stats-operations-with-hash-collisions
+  (let [kvm (into lmu/empty (assoc (zipmap (range 10) (range 10)) :key70327 :bar1 :key101439 :bar2))
+        s (lmu/stats kvm)]
+    (t/is (= 1 (:collision-nodes s)))
+    (t/is (= {2 1} (:collision-sizes s)))
+    (t/is (= 7 (:max-depth s)))
+    (t/is (= 10 (weighted-sum (:data-arity s))))
+    (t/is (= 0 (:collision-nodes (lmu/stats (dissoc kvm :key70327)))))))
+
 (t/deftest seq-and-iter-match
   (let [kvm (->> (zipmap (range 100) (range 100)) (into lmu/empty))]
     (t/is (= nil (try (seq-iter-match kvm kvm) (catch Exception e e))))))
@@ -102,4 +738,7 @@
   (cc/assert-map-like 1e3 lmu/empty gen-key gen-value {:base lmu/empty}))
 
 (t/deftest assert-lean-map-core-map-like-for-clj-map
-  (cc/assert-map-like 1e3 lmu/empty gen-key gen-value {:base (hash-map)}))
\ No newline at end of file
+  (cc/assert-map-like 1e3 lmu/empty gen-key gen-value {:base (hash-map)}))
+
+(t/deftest assert-hashed-lean-map-core-map-like-for-clj-map
+  (cc/assert-map-like 1e3 lmu/empty-hashed gen-key gen-value {:base (hash-map)}))
\ No newline at end of file